@@ -3,24 +3,26 @@
 
 package software.amazonaws.example.handler;
 
-import com.amazon.rdsdata.client.RdsData;
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.CloudFormationCustomResourceEvent;
 import com.google.gson.JsonObject;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import software.amazon.awssdk.services.rdsdata.RdsDataClient;
-import software.amazon.awssdk.services.rdsdata.model.BadRequestException;
-
-import java.util.Arrays;
-import java.util.List;
+import software.amazonaws.example.migration.DataApiSqlExecutor;
+import software.amazonaws.example.migration.JdbcSqlExecutor;
+import software.amazonaws.example.migration.MigrationRunner;
+import software.amazonaws.example.migration.SqlExecutor;
 
 
+/**
+ * CloudFormation custom resource that applies the versioned schema migrations of this module on stack create and
+ * update, see {@link MigrationRunner}. Clusters with a CLUSTER_ARN are migrated through the RDS Data API, the others
+ * over JDBC to END_POINT with the credentials of the RDS_SECRET secret.
+ */
 public class DBInitLambdaHandler implements RequestHandler<CloudFormationCustomResourceEvent, String> {
 
     private static final Logger logger = LogManager.getLogger(DBInitLambdaHandler.class);
-    private static final int MAX_RETRIES = 2;
 
     public DBInitLambdaHandler() {
     }
@@ -33,15 +35,16 @@ public class DBInitLambdaHandler implements RequestHandler<CloudFormationCustomR
         logger.info("Request Type :: " + event.getRequestType());
         logger.info("Properties :: " + event.getResourceProperties());
 
-        String sqlScript = event.getResourceProperties().get("SqlScript").toString();
-
-        executeSQLStatements(getSQLStatements(sqlScript));
-
         JsonObject retJson = new JsonObject();
         if (requestType != null) {
             retJson.addProperty("RequestType", requestType);
+        }
 
-
+        // Deleting the stack deletes the database, there is nothing to migrate
+        if (!"Delete".equals(requestType)) {
+            try (SqlExecutor sqlExecutor = createSqlExecutor()) {
+                retJson.addProperty("SchemaVersion", new MigrationRunner(sqlExecutor).migrate());
+            }
         }
 
         if ("Update".equals(requestType) || "Delete".equals(requestType)) {
@@ -53,48 +56,14 @@ public class DBInitLambdaHandler implements RequestHandler<CloudFormationCustomR
         return retJson.toString();
     }
 
-    private List<String> getSQLStatements(String sqlScript) {
-        return Arrays.asList(sqlScript.split(";"));
-    }
-
-    private void executeSQLStatements(List<String> stmts) {
-        for (String sqlStmt : stmts) {
-            String secretArn = System.getenv("RDS_SECRET");
-            String clusterArn = System.getenv("CLUSTER_ARN");
-            String databaseName = System.getenv("DATABASE_NAME");
-
-            RdsData client = RdsData.builder()
-                    .sdkClient(RdsDataClient.builder().build())
-                    .database(databaseName)
-                    .resourceArn(clusterArn)
-                    .secretArn(secretArn)
-                    .build();
-
-            int i = 0;
-            while (i < MAX_RETRIES ) {
-                try {
-                    client.forSql(sqlStmt).withContinueAfterTimeout().execute();
-                    logger.info("Finished running SQL :: " + sqlStmt);
-                    i = MAX_RETRIES;
-                } catch (BadRequestException be) {
-                    //Serverless Aurora Cluster is paused. Needs a few seconds to wake up. Wait for 30 secs
-                    i++;
-                    logger.info("AURORA serverless Cluster is paused. Retry in 30 secs");
-                    try {
-                        Thread.sleep(30 * 1000);
-                    } catch (InterruptedException e) {
-                        logger.error(e);
-                    }
-                } catch (Exception e) {
-                    i = MAX_RETRIES;
-                    logger.error(e);
-                    throw e;
-                }
-
-            }
+    private SqlExecutor createSqlExecutor() {
+        String secretArn = System.getenv("RDS_SECRET");
+        String clusterArn = System.getenv("CLUSTER_ARN");
+        String databaseName = System.getenv("DATABASE_NAME");
+        if (clusterArn != null && !clusterArn.isEmpty()) {
+            return new DataApiSqlExecutor(clusterArn, secretArn, databaseName);
         }
-
+        return new JdbcSqlExecutor(System.getenv("END_POINT"), System.getenv("DB_PORT"), databaseName, secretArn);
     }
 
-
 }
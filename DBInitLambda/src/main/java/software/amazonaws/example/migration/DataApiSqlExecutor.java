@@ -0,0 +1,87 @@
+//  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//  SPDX-License-Identifier: MIT-0
+
+package software.amazonaws.example.migration;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import software.amazon.awssdk.services.rdsdata.RdsDataClient;
+import software.amazon.awssdk.services.rdsdata.model.BadRequestException;
+import software.amazon.awssdk.services.rdsdata.model.ExecuteStatementRequest;
+import software.amazon.awssdk.services.rdsdata.model.ExecuteStatementResponse;
+import software.amazon.awssdk.services.rdsdata.model.Field;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Runs statements through the RDS Data API of an Aurora Serverless cluster. A paused cluster rejects the first
+ * statements with a BadRequestException until it has resumed, those statements are retried.
+ */
+public class DataApiSqlExecutor implements SqlExecutor {
+
+    private static final Logger logger = LogManager.getLogger(DataApiSqlExecutor.class);
+    private static final int MAX_RETRIES = 2;
+    private static final long RETRY_INTERVAL_MS = 30 * 1000;
+
+    private final RdsDataClient client;
+    private final String clusterArn;
+    private final String secretArn;
+    private final String databaseName;
+
+    public DataApiSqlExecutor(String clusterArn, String secretArn, String databaseName) {
+        this.client = RdsDataClient.builder().build();
+        this.clusterArn = clusterArn;
+        this.secretArn = secretArn;
+        this.databaseName = databaseName;
+    }
+
+    @Override
+    public void execute(String sql) {
+        executeStatement(sql);
+        logger.info("Finished running SQL :: " + sql);
+    }
+
+    @Override
+    public Set<Integer> queryInts(String sql) {
+        Set<Integer> values = new HashSet<>();
+        for (List<Field> record : executeStatement(sql).records()) {
+            values.add(record.get(0).longValue().intValue());
+        }
+        return values;
+    }
+
+    @Override
+    public void close() {
+        client.close();
+    }
+
+    private ExecuteStatementResponse executeStatement(String sql) {
+        ExecuteStatementRequest request = ExecuteStatementRequest.builder()
+                .resourceArn(clusterArn)
+                .secretArn(secretArn)
+                .database(databaseName)
+                .continueAfterTimeout(true)
+                .sql(sql)
+                .build();
+        for (int i = 0; ; i++) {
+            try {
+                return client.executeStatement(request);
+            } catch (BadRequestException e) {
+                if (i == MAX_RETRIES) {
+                    throw e;
+                }
+                //Serverless Aurora Cluster is paused. Needs a few seconds to wake up.
+                logger.info("AURORA serverless Cluster is paused. Retry in 30 secs");
+                try {
+                    Thread.sleep(RETRY_INTERVAL_MS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,86 @@
+//  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//  SPDX-License-Identifier: MIT-0
+
+package software.amazonaws.example.migration;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import software.amazon.awssdk.services.secretsmanager.SecretsManagerClient;
+import software.amazon.awssdk.services.secretsmanager.model.GetSecretValueRequest;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Runs statements over one JDBC connection to a MySQL cluster endpoint, with the user name and password of the
+ * cluster's Secrets Manager secret. Used for the clusters behind RDS Proxy, which have no Data API.
+ */
+public class JdbcSqlExecutor implements SqlExecutor {
+
+    private static final Logger logger = LogManager.getLogger(JdbcSqlExecutor.class);
+    private static final String JDBC_PREFIX = "jdbc:mysql://";
+
+    private final Connection connection;
+
+    public JdbcSqlExecutor(String endpoint, String port, String databaseName, String secretArn) {
+        String secretString;
+        try (SecretsManagerClient secretsManager = SecretsManagerClient.create()) {
+            secretString = secretsManager.getSecretValue(GetSecretValueRequest.builder()
+                    .secretId(secretArn)
+                    .build()).secretString();
+        }
+        JsonObject secret = JsonParser.parseString(secretString).getAsJsonObject();
+        Properties properties = new Properties();
+        properties.setProperty("user", secret.get("username").getAsString());
+        properties.setProperty("password", secret.get("password").getAsString());
+        properties.setProperty("sslMode", "REQUIRED");
+        try {
+            this.connection = DriverManager.getConnection(JDBC_PREFIX + endpoint + ":" + port + "/" + databaseName,
+                    properties);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Cannot open DB connection to " + endpoint, e);
+        }
+    }
+
+    @Override
+    public void execute(String sql) {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Error running SQL :: " + sql, e);
+        }
+        logger.info("Finished running SQL :: " + sql);
+    }
+
+    @Override
+    public Set<Integer> queryInts(String sql) {
+        Set<Integer> values = new HashSet<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet results = statement.executeQuery(sql)) {
+            while (results.next()) {
+                values.add(results.getInt(1));
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Error running SQL :: " + sql, e);
+        }
+        return values;
+    }
+
+    @Override
+    public void close() {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            logger.error("Cannot close DB connection", e);
+        }
+    }
+
+}
@@ -0,0 +1,103 @@
+//  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//  SPDX-License-Identifier: MIT-0
+
+package software.amazonaws.example.migration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * One versioned migration script, named V&lt;version&gt;__&lt;description&gt;.sql.
+ * <p>
+ * A script may start with a "-- precondition: &lt;query&gt;" line. Its statements then only run when the first value of
+ * the query is 0, which makes DDL that MySQL has no IF NOT EXISTS form for, like ADD COLUMN, conditional. The
+ * migration is recorded as applied either way.
+ */
+public class Migration {
+
+    static final Pattern FILE_NAME = Pattern.compile("V(\\d+)__(\\w+)\\.sql");
+    private static final String PRECONDITION = "-- precondition:";
+    private static final Pattern DELIMITER = Pattern.compile("(?i)DELIMITER\\s+(\\S+)");
+
+    private final int version;
+    private final String description;
+    private final String script;
+
+    Migration(int version, String description, String script) {
+        this.version = version;
+        this.description = description;
+        this.script = script;
+    }
+
+    /**
+     * Returns the migration of a script file, or null when the file name is not a migration name.
+     */
+    static Migration fromFile(String fileName, String script) {
+        Matcher matcher = FILE_NAME.matcher(fileName);
+        if (!matcher.matches()) {
+            return null;
+        }
+        return new Migration(Integer.parseInt(matcher.group(1)), matcher.group(2), script);
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * Returns the precondition query of the script, or null when its statements always run.
+     */
+    public String getPrecondition() {
+        for (String line : script.split("\n")) {
+            if (line.trim().startsWith(PRECONDITION)) {
+                return line.trim().substring(PRECONDITION.length()).trim();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The statements of the script, split on semicolons. Comment lines and empty statements are left out. A
+     * "DELIMITER &lt;text&gt;" line, as in the mysql client, splits the following statements on that text instead,
+     * so that stored procedure bodies can contain semicolons.
+     */
+    public List<String> getStatements() {
+        List<String> statements = new ArrayList<>();
+        String delimiter = ";";
+        StringBuilder statement = new StringBuilder();
+        for (String line : script.split("\n")) {
+            String trimmed = line.trim();
+            if (trimmed.startsWith("--")) {
+                continue;
+            }
+            Matcher delimiterMatcher = DELIMITER.matcher(trimmed);
+            if (delimiterMatcher.matches()) {
+                addStatement(statements, statement.toString());
+                statement.setLength(0);
+                delimiter = delimiterMatcher.group(1);
+                continue;
+            }
+            statement.append(line).append('\n');
+            int end;
+            while ((end = statement.indexOf(delimiter)) >= 0) {
+                addStatement(statements, statement.substring(0, end));
+                statement.delete(0, end + delimiter.length());
+            }
+        }
+        addStatement(statements, statement.toString());
+        return statements;
+    }
+
+    private static void addStatement(List<String> statements, String statement) {
+        if (!statement.trim().isEmpty()) {
+            statements.add(statement.trim());
+        }
+    }
+
+}
@@ -0,0 +1,123 @@
+//  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//  SPDX-License-Identifier: MIT-0
+
+package software.amazonaws.example.migration;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Applies the migration scripts in {@link #LOCATION} that are not yet recorded in the schema_migrations table, in
+ * version order. A migration is recorded after all its statements ran. MySQL commits DDL statements implicitly, so a
+ * migration that fails halfway is not rolled back and has to be fixed by a new version or by hand.
+ * <p>
+ * The Lambda functions only compare the highest recorded version with the version they need, see DBInitializer in
+ * GraphqlLambda and LambdaResolver.
+ */
+public class MigrationRunner {
+
+    private static final Logger logger = LogManager.getLogger(MigrationRunner.class);
+    static final String LOCATION = "db/migration";
+    private static final String CREATE_MIGRATIONS_TBL = "CREATE TABLE IF NOT EXISTS schema_migrations (" +
+            "version     INT NOT NULL," +
+            "description VARCHAR(255) NOT NULL," +
+            "appliedAt   TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
+            "PRIMARY KEY(version))";
+
+    private final SqlExecutor sqlExecutor;
+
+    public MigrationRunner(SqlExecutor sqlExecutor) {
+        this.sqlExecutor = sqlExecutor;
+    }
+
+    /**
+     * Returns the schema version after the pending migrations were applied.
+     */
+    public int migrate() {
+        List<Migration> migrations = loadMigrations();
+        sqlExecutor.execute(CREATE_MIGRATIONS_TBL);
+        Set<Integer> applied = sqlExecutor.queryInts("SELECT version FROM schema_migrations");
+        int version = applied.stream().max(Integer::compare).orElse(0);
+        for (Migration migration : migrations) {
+            if (applied.contains(migration.getVersion())) {
+                continue;
+            }
+            if (preconditionHolds(migration)) {
+                logger.info("Applying migration V" + migration.getVersion() + " " + migration.getDescription());
+                for (String statement : migration.getStatements()) {
+                    sqlExecutor.execute(statement);
+                }
+            } else {
+                logger.info("Skipping the statements of migration V" + migration.getVersion() + " "
+                        + migration.getDescription() + ", its precondition does not hold");
+            }
+            // Version and description come from the validated file name
+            sqlExecutor.execute("INSERT INTO schema_migrations(version, description) VALUES ("
+                    + migration.getVersion() + ", '" + migration.getDescription() + "')");
+            version = Math.max(version, migration.getVersion());
+        }
+        logger.info("Database schema is at version " + version);
+        return version;
+    }
+
+    private boolean preconditionHolds(Migration migration) {
+        String precondition = migration.getPrecondition();
+        return precondition == null || sqlExecutor.queryInts(precondition).equals(Set.of(0));
+    }
+
+    static List<Migration> loadMigrations() {
+        URL url = MigrationRunner.class.getClassLoader().getResource(LOCATION);
+        if (url == null) {
+            throw new IllegalStateException("No migrations found at " + LOCATION);
+        }
+        try {
+            URI uri = url.toURI();
+            if ("jar".equals(uri.getScheme())) {
+                try (FileSystem jar = FileSystems.newFileSystem(uri, Map.of())) {
+                    return loadMigrations(jar.getPath(LOCATION));
+                }
+            }
+            return loadMigrations(Paths.get(uri));
+        } catch (IOException | URISyntaxException e) {
+            throw new IllegalStateException("Cannot read migrations at " + LOCATION, e);
+        }
+    }
+
+    private static List<Migration> loadMigrations(Path directory) throws IOException {
+        List<Migration> migrations = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Migration migration = Migration.fromFile(file.getFileName().toString(),
+                        new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+                if (migration != null) {
+                    migrations.add(migration);
+                }
+            }
+        }
+        migrations.sort(Comparator.comparingInt(Migration::getVersion));
+        for (int i = 1; i < migrations.size(); i++) {
+            if (migrations.get(i).getVersion() == migrations.get(i - 1).getVersion()) {
+                throw new IllegalStateException("Duplicate migration version V" + migrations.get(i).getVersion());
+            }
+        }
+        return migrations;
+    }
+
+}
@@ -0,0 +1,23 @@
+//  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//  SPDX-License-Identifier: MIT-0
+
+package software.amazonaws.example.migration;
+
+import java.util.Set;
+
+/**
+ * Runs the statements of the migrations against one database.
+ */
+public interface SqlExecutor extends AutoCloseable {
+
+    void execute(String sql);
+
+    /**
+     * Returns the integer values of the first column of the query.
+     */
+    Set<Integer> queryInts(String sql);
+
+    @Override
+    void close();
+
+}
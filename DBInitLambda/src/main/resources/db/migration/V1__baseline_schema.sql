@@ -1,9 +1,11 @@
-
+-- Tables as created by earlier releases, a no-op on databases that already have them. Posts tables of the
+-- baseline release lack commentCount, V3 adds it. The counter slot tables are added by V4.
 CREATE TABLE IF NOT EXISTS posts (
     id        VARCHAR(64) NOT NULL,
     author    VARCHAR(128) NOT NULL,
     content   VARCHAR(255) NOT NULL,
     views   INT NOT NULL,
+    commentCount INT NOT NULL DEFAULT 0,
     PRIMARY KEY(id)
     );
 
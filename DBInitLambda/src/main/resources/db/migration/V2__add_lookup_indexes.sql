@@ -0,0 +1,11 @@
+-- InnoDB secondary indexes end with the primary key, so each index serves the keyset pages of the DAOs
+-- (where x = ? and id > ? order by id limit ?) as a range scan in id order, without a filesort. The DAOs select
+-- full rows, so every matching entry is still looked up in the clustered index. Only the id-only projections and
+-- counts are answered from the index alone. V5 replaces these indexes with covering ones.
+
+-- Comments of a post: comment pages, comment counts and the posts/comments join
+CREATE INDEX comments_post_id_idx ON comments (postId, id);
+
+-- Comments and posts of an author
+CREATE INDEX comments_author_id_idx ON comments (author, id);
+CREATE INDEX posts_author_id_idx ON posts (author, id);
@@ -0,0 +1,8 @@
+-- precondition: SELECT COUNT(*) FROM information_schema.columns WHERE table_schema = DATABASE() AND table_name = 'posts' AND column_name = 'commentCount'
+-- Databases created by the baseline release have posts without commentCount, V1 does not alter existing tables.
+-- The column is added and filled from the comments once, the DAOs keep it up to date from then on. The new functions
+-- are only deployed after the migrations, so no comment is created between the ALTER and the UPDATE. The count
+-- subquery reads the comments_post_id_idx index of V2.
+ALTER TABLE posts ADD COLUMN commentCount INT NOT NULL DEFAULT 0;
+
+UPDATE posts p SET commentCount = (SELECT COUNT(*) FROM comments c WHERE c.postId = p.id);
@@ -0,0 +1,20 @@
+-- Slot rows of the sharded counters of GraphqlLambda, used when COUNTER_SHARDS > 0. Databases migrated by an
+-- earlier build of V1 already have them, so the tables are only created when missing.
+CREATE TABLE IF NOT EXISTS comment_vote_shards (
+            commentId VARCHAR(64) NOT NULL,
+            slot      INT NOT NULL,
+            upvotes   INT NOT NULL DEFAULT 0,
+            downvotes INT NOT NULL DEFAULT 0,
+            updatedAt TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+            PRIMARY KEY(commentId, slot),
+            FOREIGN KEY(commentId) REFERENCES comments(id)
+);
+
+CREATE TABLE IF NOT EXISTS post_view_shards (
+            postId    VARCHAR(64) NOT NULL,
+            slot      INT NOT NULL,
+            views     INT NOT NULL DEFAULT 0,
+            updatedAt TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+            PRIMARY KEY(postId, slot),
+            FOREIGN KEY(postId) REFERENCES posts(id)
+);
@@ -0,0 +1,16 @@
+-- Covering indexes for the keyset queries of both functions (where x = ? [and id > ?] order by id limit ?). Every
+-- column the DAOs project is part of the index, so the pages and the posts/comments join are answered from the index
+-- alone, without a clustered index lookup per row. The columns sum up to about 2 KB per entry in utf8mb4, below the
+-- 3072 byte key limit of InnoDB. Vote, view and comment count updates also rewrite the entry of the row in these
+-- indexes. With COUNTER_AGGREGATION or COUNTER_SHARDS these writes are batched or go to the slot tables.
+--
+-- Each index starts with the columns of the V2 index it replaces, so the V2 index is dropped after it exists and the
+-- foreign key of comments.postId keeps an index at all times.
+CREATE INDEX comments_post_covering_idx ON comments (postId, id, author, content, upvotes, downvotes);
+DROP INDEX comments_post_id_idx ON comments;
+
+CREATE INDEX comments_author_covering_idx ON comments (author, id, postId, content, upvotes, downvotes);
+DROP INDEX comments_author_id_idx ON comments;
+
+CREATE INDEX posts_author_covering_idx ON posts (author, id, content, views, commentCount);
+DROP INDEX posts_author_id_idx ON posts;
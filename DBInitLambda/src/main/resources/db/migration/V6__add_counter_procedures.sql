@@ -0,0 +1,51 @@
+-- Procedures that add a vote or a view and return the updated row as their result set, so that a mutation sends
+-- one CALL instead of an UPDATE and a SELECT, with allowMultiQueries off. A row that does not exist updates nothing
+-- and returns no row.
+--
+-- With p_slot NULL the counter column is updated. Otherwise the increment goes to that slot of the sharded counters
+-- of GraphqlLambda, and the slot is only inserted when the row exists, so the foreign key never fails. The returned
+-- counters always add the slots that are not collapsed yet.
+DROP PROCEDURE IF EXISTS vote_comment;
+DROP PROCEDURE IF EXISTS view_post;
+
+DELIMITER //
+
+CREATE PROCEDURE vote_comment(IN p_id VARCHAR(64), IN p_upvote BOOLEAN, IN p_slot INT)
+BEGIN
+    IF p_slot IS NULL AND p_upvote THEN
+        UPDATE comments SET upvotes = upvotes + 1 WHERE id = p_id;
+    ELSEIF p_slot IS NULL THEN
+        UPDATE comments SET downvotes = downvotes + 1 WHERE id = p_id;
+    ELSEIF p_upvote THEN
+        INSERT INTO comment_vote_shards (commentId, slot, upvotes)
+            SELECT id, p_slot, 1 FROM comments WHERE id = p_id
+            ON DUPLICATE KEY UPDATE comment_vote_shards.upvotes = comment_vote_shards.upvotes + 1;
+    ELSE
+        INSERT INTO comment_vote_shards (commentId, slot, downvotes)
+            SELECT id, p_slot, 1 FROM comments WHERE id = p_id
+            ON DUPLICATE KEY UPDATE comment_vote_shards.downvotes = comment_vote_shards.downvotes + 1;
+    END IF;
+    SELECT c.id, c.author, c.postId, c.content,
+           c.upvotes + (SELECT COALESCE(SUM(s.upvotes), 0) FROM comment_vote_shards s WHERE s.commentId = c.id)
+               AS upvotes,
+           c.downvotes + (SELECT COALESCE(SUM(s.downvotes), 0) FROM comment_vote_shards s WHERE s.commentId = c.id)
+               AS downvotes
+    FROM comments c WHERE c.id = p_id;
+END //
+
+CREATE PROCEDURE view_post(IN p_id VARCHAR(64), IN p_slot INT)
+BEGIN
+    IF p_slot IS NULL THEN
+        UPDATE posts SET views = views + 1 WHERE id = p_id;
+    ELSE
+        INSERT INTO post_view_shards (postId, slot, views)
+            SELECT id, p_slot, 1 FROM posts WHERE id = p_id
+            ON DUPLICATE KEY UPDATE post_view_shards.views = post_view_shards.views + 1;
+    END IF;
+    SELECT p.id, p.author, p.content,
+           p.views + (SELECT COALESCE(SUM(s.views), 0) FROM post_view_shards s WHERE s.postId = p.id) AS views,
+           p.commentCount
+    FROM posts p WHERE p.id = p_id;
+END //
+
+DELIMITER ;
@@ -8,46 +8,103 @@ import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayV2HTTPResponse;
 import com.google.common.net.HttpHeaders;
+import graphql.ExecutionResult;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.crac.Core;
+import org.crac.Resource;
+import software.amazonaws.sample.graphqllambda.util.ConnectionPool;
 import software.amazonaws.sample.graphqllambda.util.DBInitializer;
+import software.amazonaws.sample.graphqllambda.util.GraphQLOperation;
 import software.amazonaws.sample.graphqllambda.util.GraphQLUtil;
 import software.amazonaws.sample.graphqllambda.util.JsonConverter;
-
+import software.amazonaws.sample.graphqllambda.util.PayloadLogger;
+import software.amazonaws.sample.graphqllambda.util.PersistedQueryRegistry;
+import software.amazonaws.sample.graphqllambda.util.PersistedQueryRegistry.PersistedQueryException;
+import software.amazonaws.sample.graphqllambda.util.RequestMetrics;
+import software.amazonaws.sample.graphqllambda.util.ResponseCompression;
+
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 
-public class GraphqlLambdaHandler implements RequestHandler<APIGatewayV2HTTPEvent, APIGatewayV2HTTPResponse> {
+/**
+ * Lambda handler for the self managed GraphQL API. With Lambda SnapStart the handler primes the GraphQL engine,
+ * Gson and the DAOs with a synthetic read only request before the snapshot is taken.
+ */
+public class GraphqlLambdaHandler implements RequestHandler<APIGatewayV2HTTPEvent, APIGatewayV2HTTPResponse>, Resource {
 
     private static final Logger logger = LogManager.getLogger(GraphqlLambdaHandler.class);
     static String CONTENT_TYPE_JSON = "application/json";
     static String CONTENT_TYPE_GRAPHQL = "application/graphql";
     static String CONTENT_TYPE = "content-type";
+    static String ACCEPT_ENCODING = "accept-encoding";
+    static String PRIMING_QUERY = "query Priming {"
+            + " getPost(id: \"snapstart-priming\") { id author content views commentCount comments { id postId author content upvotes downvotes } }"
+            + " getPostsByAuthor(author: \"snapstart-priming\") { id author content views comments { id upvotes downvotes } }"
+            + " getCommentsByAuthor(author: \"snapstart-priming\") { id postId author content upvotes downvotes post { id author } }"
+            + " postsByAuthor(author: \"snapstart-priming\") { edges { cursor node { id commentsConnection { edges { node { id } } pageInfo { hasNextPage endCursor } } } } pageInfo { hasNextPage endCursor } }"
+            + " getNumberOfCommentsOnPost(postId: \"snapstart-priming\") }";
+    private static final int DEFAULT_MAX_BATCH_SIZE = 10;
     private final JsonConverter jsonConverter;
     private final GraphQLUtil graphQLUtil;
+    private final PersistedQueryRegistry persistedQueryRegistry;
+    private final ConnectionPool connectionPool;
+    private final DBInitializer dbInitializer;
+    private final int maxBatchSize;
+    private final ResponseCompression responseCompression;
 
     public GraphqlLambdaHandler() {
         this.jsonConverter = new JsonConverter();
-        DBInitializer dbInitializer = new DBInitializer();
-        this.graphQLUtil = new GraphQLUtil(jsonConverter, dbInitializer.getConnection());
+        this.persistedQueryRegistry = new PersistedQueryRegistry(jsonConverter);
+        this.dbInitializer = new DBInitializer();
+        this.connectionPool = dbInitializer.getConnectionPool();
+        this.graphQLUtil = new GraphQLUtil(jsonConverter, connectionPool);
+        this.maxBatchSize = getIntEnv("GRAPHQL_MAX_BATCH_SIZE", DEFAULT_MAX_BATCH_SIZE);
+        this.responseCompression = new ResponseCompression();
+        // Registered after DBInitializer so that priming runs before the pool is closed for the snapshot
+        Core.getGlobalContext().register(this);
+    }
+
+    @Override
+    public void beforeCheckpoint(org.crac.Context<? extends Resource> context) {
+        APIGatewayV2HTTPEvent primingEvent = APIGatewayV2HTTPEvent.builder()
+                .withHeaders(Map.of(CONTENT_TYPE, CONTENT_TYPE_JSON, ACCEPT_ENCODING, ResponseCompression.GZIP))
+                .withRequestContext(APIGatewayV2HTTPEvent.RequestContext.builder()
+                        .withHttp(APIGatewayV2HTTPEvent.RequestContext.Http.builder()
+                                .withMethod("POST")
+                                .build())
+                        .build())
+                .withBody(jsonConverter.toJson(Map.of("query", PRIMING_QUERY)))
+                .build();
+        APIGatewayV2HTTPResponse response = handleRequest(primingEvent, null);
+        logger.info("Primed GraphQL handler before checkpoint, status " + response.getStatusCode());
+    }
+
+    @Override
+    public void afterRestore(org.crac.Context<? extends Resource> context) {
     }
 
 
     @Override
     public APIGatewayV2HTTPResponse handleRequest(APIGatewayV2HTTPEvent event, Context context) {
-        logger.info("Event ::" + jsonConverter.toJson(event));
+        PayloadLogger.log(logger, "Event ::", () -> jsonConverter.toJson(event));
         String httpMethod = event.getRequestContext().getHttp().getMethod();
         if (httpMethod.equals("POST")) {
+            // One set of metrics per invocation, emitted once after the response size is known
+            RequestMetrics requestMetrics = new RequestMetrics();
             try {
-                return APIGatewayV2HTTPResponse.builder()
-                        .withBody(handlePostRequest(event))
-                        .withStatusCode(200)
-                        .build();
+                return encodedResponse(handlePostRequest(event, requestMetrics),
+                        event.getHeaders().get(ACCEPT_ENCODING), requestMetrics);
             } catch (IllegalArgumentException e) {
                 return APIGatewayV2HTTPResponse.builder()
                         .withBody(e.getMessage())
                         .withStatusCode(400)
                         .build();
+            } finally {
+                requestMetrics.emit(jsonConverter);
+                connectionPool.logMetrics();
             }
         } else {
             return APIGatewayV2HTTPResponse.builder()
@@ -58,26 +115,128 @@ public class GraphqlLambdaHandler implements RequestHandler<APIGatewayV2HTTPEven
 
     }
 
-    private String handlePostRequest(APIGatewayV2HTTPEvent event) {
+    /**
+     * Compresses the body when the client accepts gzip or deflate, see {@link ResponseCompression}.
+     */
+    private APIGatewayV2HTTPResponse encodedResponse(String body, String acceptEncoding,
+                                                     RequestMetrics requestMetrics) {
+        ResponseCompression.EncodedBody encoded = responseCompression.encode(body, acceptEncoding);
+        requestMetrics.recordResponseSize(encoded.getEncoding(), encoded.getRawBytes(), encoded.getEncodedBytes());
+        Map<String, String> headers = encoded.isBase64Encoded()
+                ? Map.of(HttpHeaders.CONTENT_ENCODING, encoded.getEncoding(), HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                : Map.of(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        return APIGatewayV2HTTPResponse.builder()
+                .withBody(encoded.getBody())
+                .withIsBase64Encoded(encoded.isBase64Encoded())
+                .withHeaders(headers)
+                .withStatusCode(200)
+                .build();
+    }
+
+    private String handlePostRequest(APIGatewayV2HTTPEvent event, RequestMetrics requestMetrics) {
 
         if (event.getHeaders().get(CONTENT_TYPE).equals(CONTENT_TYPE_JSON)) {
 
+            if (event.getBody().trim().startsWith("[")) {
+                return handleBatchRequest(jsonConverter.fromJson(event.getBody(), List.class), requestMetrics);
+            }
             Map<String, Object> graphQLParams = jsonConverter.fromJson(event.getBody(), Map.class);
             Object query = graphQLParams.get("query");
             Object operationName = graphQLParams.get("operationName");
             Object variablesJson = graphQLParams.get("variables");
 
-            String queryStr = "";
-            if (query != null) {
-                queryStr = query.toString();
+            String queryStr;
+            try {
+                queryStr = persistedQueryRegistry.resolve(query == null ? null : query.toString(),
+                        getPersistedQueryHash(graphQLParams.get("extensions")));
+            } catch (PersistedQueryException e) {
+                return persistedQueryError(e);
+            }
+            if (queryStr == null) {
+                queryStr = "";
             }
-            return graphQLUtil.processGraphQlRequest(queryStr, operationName == null ? null : operationName.toString(), variablesJson == null ? null : variablesJson.toString());
+            return graphQLUtil.processGraphQlRequest(queryStr, operationName == null ? null : operationName.toString(), variablesJson == null ? null : variablesJson.toString(), requestMetrics);
         } else if (event.getHeaders().get(HttpHeaders.CONTENT_TYPE).equals(CONTENT_TYPE_GRAPHQL)) {
-            return graphQLUtil.processGraphQlRequest(event.getBody(), null, null);
+            try {
+                return graphQLUtil.processGraphQlRequest(persistedQueryRegistry.resolve(event.getBody(), null), null, null,
+                        requestMetrics);
+            } catch (PersistedQueryException e) {
+                return persistedQueryError(e);
+            }
         } else {
             throw new IllegalArgumentException("Invalid or Missing Content-type header !!");
         }
     }
 
+    /**
+     * A JSON array of {query, operationName, variables} objects runs as one batch with shared DataLoaders, see
+     * {@link GraphQLUtil#processGraphQlBatch}. The response is an array in the same order. Operations whose
+     * persisted query cannot be resolved get their error in place and the others still run.
+     */
+    private String handleBatchRequest(List<Object> batch, RequestMetrics requestMetrics) {
+        if (batch.isEmpty() || batch.size() > maxBatchSize) {
+            throw new IllegalArgumentException("Batch must contain 1 to " + maxBatchSize + " operations");
+        }
+        Object[] responses = new Object[batch.size()];
+        List<GraphQLOperation> operations = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            if (!(batch.get(i) instanceof Map)) {
+                responses[i] = errorResponse("Batched operation must be a JSON object", null);
+                continue;
+            }
+            Map<String, Object> graphQLParams = (Map<String, Object>) batch.get(i);
+            Object query = graphQLParams.get("query");
+            Object operationName = graphQLParams.get("operationName");
+            Object variables = graphQLParams.get("variables");
+            String queryStr;
+            try {
+                queryStr = persistedQueryRegistry.resolve(query == null ? null : query.toString(),
+                        getPersistedQueryHash(graphQLParams.get("extensions")));
+            } catch (PersistedQueryException e) {
+                responses[i] = errorResponse(e.getMessage(), e.getCode());
+                continue;
+            }
+            operations.add(new GraphQLOperation(queryStr == null ? "" : queryStr,
+                    operationName == null ? null : operationName.toString(),
+                    variables instanceof Map ? (Map<String, Object>) variables : null));
+            positions.add(i);
+        }
+        if (!operations.isEmpty()) {
+            List<ExecutionResult> results = graphQLUtil.processGraphQlBatch(operations, requestMetrics);
+            for (int i = 0; i < results.size(); i++) {
+                responses[positions.get(i)] = results.get(i);
+            }
+        }
+        return graphQLUtil.getResultWriter().toJson(responses);
+    }
+
+    private String getPersistedQueryHash(Object extensions) {
+        if (!(extensions instanceof Map)) {
+            return null;
+        }
+        Object persistedQuery = ((Map<String, Object>) extensions).get("persistedQuery");
+        if (!(persistedQuery instanceof Map)) {
+            return null;
+        }
+        Object sha256Hash = ((Map<String, Object>) persistedQuery).get("sha256Hash");
+        return sha256Hash == null ? null : sha256Hash.toString();
+    }
+
+    private String persistedQueryError(PersistedQueryException e) {
+        return jsonConverter.toJson(errorResponse(e.getMessage(), e.getCode()));
+    }
+
+    private static Map<String, Object> errorResponse(String message, String code) {
+        Map<String, Object> error = code == null
+                ? Map.of("message", message)
+                : Map.of("message", message, "extensions", Map.of("code", code));
+        return Map.of("errors", List.of(error));
+    }
+
+    private static int getIntEnv(String name, int defaultValue) {
+        String value = System.getenv(name);
+        return value == null || value.isEmpty() ? defaultValue : Integer.parseInt(value);
+    }
 
 }
@@ -0,0 +1,103 @@
+//  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//  SPDX-License-Identifier: MIT-0
+
+package software.amazonaws.sample.graphqllambda.dao;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * The selectable columns of a table as a bit mask, one bit per column in table order. GraphQL fields that have a
+ * column of the same name select it, the key columns are always selected.
+ * <p>
+ * A table has at most 2^columns select lists, so the projected statements form a small, fixed set of texts that the
+ * statement caches can hold. Select lists are built once per mask.
+ */
+public final class Columns {
+
+    public static final Columns POSTS = new Columns("posts",
+            List.of("id", "author", "content", "views", "commentCount"), List.of("id"), ShardedCounters.POST_VIEWS);
+    public static final Columns COMMENTS = new Columns("comments",
+            List.of("id", "author", "postId", "content", "upvotes", "downvotes"), List.of("id", "postId"),
+            ShardedCounters.COMMENT_VOTES);
+
+    private final String table;
+    private final List<String> names;
+    private final ShardedCounters shardedCounters;
+    private final int keyColumns;
+    private final Map<Integer, String> selectLists = new ConcurrentHashMap<>();
+    private final Map<String, String> aliasedSelectLists = new ConcurrentHashMap<>();
+
+    private Columns(String table, List<String> names, List<String> keyNames, ShardedCounters shardedCounters) {
+        this.table = table;
+        this.names = names;
+        this.keyColumns = bits(keyNames);
+        this.shardedCounters = shardedCounters;
+    }
+
+    public int all() {
+        return (1 << names.size()) - 1;
+    }
+
+    /**
+     * Returns the mask of the key columns plus the columns named by the fields. Fields without a column are ignored.
+     */
+    public int mask(Collection<String> fields) {
+        return keyColumns | bits(fields);
+    }
+
+    public boolean has(int mask, String column) {
+        return (mask & (1 << names.indexOf(column))) != 0;
+    }
+
+    /**
+     * Returns the comma separated select list of the mask, in table order. With {@link ShardedCounters} enabled the
+     * counter columns are selected as the base value plus the sum of their slots.
+     */
+    public String select(int mask) {
+        return selectLists.computeIfAbsent(mask | keyColumns, key -> selectedNames(key)
+                .map(column -> isSharded(column)
+                        ? shardedCounters.sumExpression(column, table) + " as " + column
+                        : column)
+                .collect(Collectors.joining(", ")));
+    }
+
+    /**
+     * Returns the select list of the mask for the table alias, every column labelled alias_column, for queries that
+     * join tables with the same column names.
+     */
+    public String select(int mask, String alias) {
+        int columns = mask | keyColumns;
+        return aliasedSelectLists.computeIfAbsent(alias + ":" + columns, key -> selectedNames(columns)
+                .map(column -> (isSharded(column) ? shardedCounters.sumExpression(column, alias) : alias + "." + column)
+                        + " as " + alias + "_" + column)
+                .collect(Collectors.joining(", ")));
+    }
+
+    private Stream<String> selectedNames(int mask) {
+        return IntStream.range(0, names.size())
+                .filter(i -> (mask & (1 << i)) != 0)
+                .mapToObj(names::get);
+    }
+
+    private boolean isSharded(String column) {
+        return ShardedCounters.isEnabled() && shardedCounters.hasColumn(column);
+    }
+
+    private int bits(Collection<String> fields) {
+        int mask = 0;
+        for (String field : fields) {
+            int index = names.indexOf(field);
+            if (index >= 0) {
+                mask |= 1 << index;
+            }
+        }
+        return mask;
+    }
+
+}
@@ -5,106 +5,247 @@ package software.amazonaws.sample.graphqllambda.dao;
 
 import software.amazonaws.sample.graphqllambda.entity.Comment;
 
+import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public class CommentDao {
 
-    private Connection connection;
+    // RDS Proxy pins the session for statements over 16 KB. A part is a few hundred bytes, so 16 parts, one of the
+    // InListQuery buckets, keep the union well below that even with the sharded counter sums in the select list.
+    public static final int MAX_UNION_PARTS = 16;
 
-    public CommentDao(Connection connection) {
-        this.connection = connection;
-    }
-
-    public List<Comment> getCommentsByPost(String postId) throws SQLException {
-        String query = "select id, author, postId, content, upvotes, downvotes from comments "
-                + "where postId = ?";
+    private DataSource dataSource;
 
-        return getCommentsByField(Optional.of(postId), query);
+    public CommentDao(DataSource dataSource) {
+        this.dataSource = dataSource;
     }
 
-    public List<Comment> getCommentsByPostIds(List<String> postIds) throws SQLException {
-        String postList = postIds.stream()
-                .map(id -> ("'" + id + "'"))
-                .collect(Collectors.joining(","));
+    public List<Comment> getCommentsByPost(String postId, int columns) throws SQLException {
+        String query = "select " + Columns.COMMENTS.select(columns) + " from comments "
+                + "where postId = ? order by id limit " + Pagination.LIST_FETCH_SIZE;
 
-        String query = "select id, author, postId, content, upvotes, downvotes from comments "
-                + "where postId in (" + postList + ")";
+        return getCommentsByField(Optional.of(postId), query, columns);
+    }
 
-        return getCommentsByField(Optional.empty(),query);
+    /**
+     * Loads one page of comments per request with a UNION ALL of keyset queries, so that every post gets at most
+     * its own limit of rows in one round trip per {@link #MAX_UNION_PARTS} requests. Returns the comments in the
+     * order of the requests.
+     * <p>
+     * The number of parts is rounded up like {@link InListQuery}, padding parts have a limit of 0. All parts select
+     * the union of the requested columns.
+     */
+    public List<List<Comment>> getCommentPagesByPostIds(List<PageRequest> requests) throws SQLException {
+        int columns = requests.stream().mapToInt(PageRequest::getColumns).reduce(0, (a, b) -> a | b);
+        String part = "select %d as part, " + Columns.COMMENTS.select(columns) + " from comments "
+                + "where postId = ? and id > ? order by id limit ?";
+
+        List<List<Comment>> pages = new ArrayList<>();
+        requests.forEach(request -> pages.add(new ArrayList<>()));
+        if (requests.isEmpty()) {
+            return pages;
+        }
+        try (Connection connection = dataSource.getConnection()) {
+            for (int start = 0; start < requests.size(); start += MAX_UNION_PARTS) {
+                List<PageRequest> chunk = requests.subList(start, Math.min(start + MAX_UNION_PARTS, requests.size()));
+                int bucket = InListQuery.bucketSize(chunk.size());
+                String query = IntStream.range(0, bucket)
+                        .mapToObj(i -> "(" + String.format(part, i) + ")")
+                        .collect(Collectors.joining(" union all "));
+                try (PreparedStatement preparedStatement = connection.prepareStatement(query)) {
+                    for (int i = 0; i < bucket; i++) {
+                        PageRequest request = chunk.get(Math.min(i, chunk.size() - 1));
+                        preparedStatement.setString(3 * i + 1, request.getParentId());
+                        preparedStatement.setString(3 * i + 2, request.getAfterId());
+                        preparedStatement.setInt(3 * i + 3, i < chunk.size() ? request.getLimit() : 0);
+                    }
+                    try (ResultSet results = preparedStatement.executeQuery()) {
+                        while (results.next()) {
+                            pages.get(start + results.getInt("part")).add(toComment(results, columns));
+                        }
+                    }
+                }
+            }
+        }
+        return pages;
     }
 
-    public Comment getCommentsById(String commentId) throws SQLException {
-        String query = "select id, author, postId, content, upvotes, downvotes from comments "
+    public Comment getCommentsById(String commentId, int columns) throws SQLException {
+        String query = "select " + Columns.COMMENTS.select(columns) + " from comments "
                 + "where id = ?";
 
-        List<Comment> comments = getCommentsByField(Optional.of(commentId), query);
+        List<Comment> comments = getCommentsByField(Optional.of(commentId), query, columns);
         if (comments.size() == 0) {
             return null;
         }
         return comments.get(0);
     }
 
-    public List<Comment> getCommentsByAuthor(String author) throws SQLException {
-        String query = "select id, author, postId, content, upvotes, downvotes from comments "
-                + "where author = ?";
+    public List<Comment> getCommentsByAuthor(String author, int columns) throws SQLException {
+        String query = "select " + Columns.COMMENTS.select(columns) + " from comments "
+                + "where author = ? order by id limit " + Pagination.LIST_FETCH_SIZE;
 
-        return getCommentsByField(Optional.of(author), query);
+        return getCommentsByField(Optional.of(author), query, columns);
     }
 
-    private List<Comment> getCommentsByField(Optional<String> param, String query) throws SQLException {
+    /**
+     * Returns up to limit comments of the author with an id greater than afterId, ordered by id.
+     */
+    public List<Comment> getCommentsPageByAuthor(String author, String afterId, int limit, int columns)
+            throws SQLException {
+        String query = "select " + Columns.COMMENTS.select(columns) + " from comments "
+                + "where author = ? and id > ? order by id limit ?";
+
         List<Comment> commentList = new ArrayList<>();
-        PreparedStatement preparedStatement = connection.prepareStatement(query);
-        if(param.isPresent()) {
-            preparedStatement.setString(1, param.get());
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(query)) {
+            preparedStatement.setString(1, author);
+            preparedStatement.setString(2, afterId);
+            preparedStatement.setInt(3, limit);
+            try (ResultSet results = preparedStatement.executeQuery()) {
+                while (results.next()) {
+                    commentList.add(toComment(results, columns));
+                }
+            }
         }
-        ResultSet results = preparedStatement.executeQuery();
-
-        while (results.next()) {
-            Comment comment = Comment.builder()
-                    .postId(results.getString("postId"))
-                    .author(results.getString("author"))
-                    .content(results.getString("content"))
-                    .id(results.getString("id"))
-                    .upvotes(results.getInt("upvotes"))
-                    .downvotes(results.getInt("downvotes"))
-                    .build();
-            commentList.add(comment);
+        return commentList;
+    }
+
+    private List<Comment> getCommentsByField(Optional<String> param, String query, int columns) throws SQLException {
+        List<Comment> commentList = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(query)) {
+            if(param.isPresent()) {
+                preparedStatement.setString(1, param.get());
+            }
+            try (ResultSet results = preparedStatement.executeQuery()) {
+                while (results.next()) {
+                    commentList.add(toComment(results, columns));
+                }
+            }
         }
 
         return commentList;
     }
 
+    /**
+     * Maps the selected columns, the other fields stay null.
+     */
+    private Comment toComment(ResultSet results, int columns) throws SQLException {
+        return toComment(results, columns, "");
+    }
+
+    /**
+     * @param prefix label prefix of the columns, as selected by {@link Columns#select(int, String)}
+     */
+    static Comment toComment(ResultSet results, int columns, String prefix) throws SQLException {
+        Comment.CommentBuilder comment = Comment.builder()
+                .postId(results.getString(prefix + "postId"))
+                .id(results.getString(prefix + "id"));
+        if (Columns.COMMENTS.has(columns, "author")) {
+            comment.author(results.getString(prefix + "author"));
+        }
+        if (Columns.COMMENTS.has(columns, "content")) {
+            comment.content(results.getString(prefix + "content"));
+        }
+        if (Columns.COMMENTS.has(columns, "upvotes")) {
+            comment.upvotes(results.getInt(prefix + "upvotes"));
+        }
+        if (Columns.COMMENTS.has(columns, "downvotes")) {
+            comment.downvotes(results.getInt(prefix + "downvotes"));
+        }
+        return comment.build();
+    }
+
+    /**
+     * Inserts the comment and increments posts.commentCount in the same transaction.
+     */
     public void createComment(Comment comment) throws SQLException {
         String query = "insert into comments(id, author, postId, content, upvotes, downvotes) values (?, ? , ?, ?, ?, ?)";
-        PreparedStatement statement = connection.prepareStatement(query);
-        statement.setString(1, comment.getId());
-        statement.setString(2, comment.getAuthor());
-        statement.setString(3, comment.getPostId());
-        statement.setString(4, comment.getContent());
-        statement.setInt(5, comment.getUpvotes());
-        statement.setInt(6, comment.getDownvotes());
-        statement.executeUpdate();
-    }
-
-    public void upVoteComment(String commentId) throws SQLException {
-        String query = "update comments set upvotes = upvotes+1 where id = ?";
-        PreparedStatement statement = connection.prepareStatement(query);
-        statement.setString(1, commentId);
-        statement.executeUpdate();
-    }
-
-    public void downVoteComment(String commentId) throws SQLException {
-        String query = "update comments set downvotes = downvotes+1 where id = ?";
-        PreparedStatement statement = connection.prepareStatement(query);
-        statement.setString(1, commentId);
-        statement.executeUpdate();
+        String incrementCount = "update posts set commentCount = commentCount+1 where id = ?";
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = connection.prepareStatement(query);
+                 PreparedStatement countStatement = connection.prepareStatement(incrementCount)) {
+                statement.setString(1, comment.getId());
+                statement.setString(2, comment.getAuthor());
+                statement.setString(3, comment.getPostId());
+                statement.setString(4, comment.getContent());
+                statement.setInt(5, comment.getUpvotes());
+                statement.setInt(6, comment.getDownvotes());
+                statement.executeUpdate();
+                countStatement.setString(1, comment.getPostId());
+                countStatement.executeUpdate();
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    /**
+     * Adds an upvote and returns the comment with the selected columns in one round trip, see
+     * {@link ReturningUpdate#callAndMap}. With {@link ShardedCounters} enabled the vote goes to a random slot of the
+     * comment. Returns null when the comment does not exist.
+     */
+    public Comment upVoteComment(String commentId, int columns) throws SQLException {
+        return vote(true, commentId, columns);
+    }
+
+    public Comment downVoteComment(String commentId, int columns) throws SQLException {
+        return vote(false, commentId, columns);
+    }
+
+    /**
+     * Adds an upvote and returns only the new number of upvotes, or null when the comment does not exist. The
+     * value comes back with the update, without a select. Not for {@link ShardedCounters}, where the column only
+     * holds the collapsed base value.
+     */
+    public Integer upVoteAndGetUpvotes(String commentId) throws SQLException {
+        return ReturningUpdate.updateCounter(dataSource,
+                "update comments set upvotes = last_insert_id(upvotes+1) where id = ?", commentId);
+    }
+
+    public Integer downVoteAndGetDownvotes(String commentId) throws SQLException {
+        return ReturningUpdate.updateCounter(dataSource,
+                "update comments set downvotes = last_insert_id(downvotes+1) where id = ?", commentId);
+    }
+
+    // vote_comment returns every column, only the selected ones are mapped
+    private Comment vote(boolean upvote, String commentId, int columns) throws SQLException {
+        if (ShardedCounters.isEnabled()) {
+            return ReturningUpdate.callAndMap(dataSource, "call vote_comment(?, ?, ?)",
+                    List.of(commentId, upvote, ShardedCounters.randomSlot()), results -> toComment(results, columns));
+        }
+        return ReturningUpdate.callAndMap(dataSource, "call vote_comment(?, ?, null)", List.of(commentId, upvote),
+                results -> toComment(results, columns));
+    }
+
+    /**
+     * Folds the vote slots of up to limit comments that were not voted on for idleSeconds into comments.upvotes
+     * and comments.downvotes. Returns the number of collapsed comments.
+     */
+    public int collapseVoteShards(int idleSeconds, int limit) throws SQLException {
+        return ShardedCounters.COMMENT_VOTES.collapse(dataSource, idleSeconds, limit);
+    }
+
+    /**
+     * Adds the vote deltas, keyed by comment id, with one update per chunk of comments.
+     */
+    public int addVotes(Map<String, Long> upvotes, Map<String, Long> downvotes) throws SQLException {
+        return CounterUpdate.add(dataSource, "comments", Map.of("upvotes", upvotes, "downvotes", downvotes));
     }
 
 }
@@ -0,0 +1,91 @@
+//  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//  SPDX-License-Identifier: MIT-0
+
+package software.amazonaws.sample.graphqllambda.dao;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Adds deltas to counter columns of many rows with one statement per chunk of ids:
+ * <pre>
+ * update posts set views = views + case id when ? then ? ... else 0 end where id in (?, ...)
+ * </pre>
+ * Ids are sorted, so concurrent flushes lock the rows in the same order and do not deadlock. Like {@link InListQuery},
+ * the ids of a chunk are padded with the last one up to a bucket size, so the statement text only depends on the
+ * bucket and the updated columns. A padded id repeats a "when" that never matches again and adds nothing.
+ */
+final class CounterUpdate {
+
+    private CounterUpdate() {
+    }
+
+    /**
+     * @param deltasByColumn per counter column, the delta to add per row id
+     * @return the number of updated rows
+     */
+    static int add(DataSource dataSource, String table, Map<String, Map<String, Long>> deltasByColumn)
+            throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            return add(connection, table, deltasByColumn);
+        }
+    }
+
+    /**
+     * Runs the updates on the connection, within its current transaction.
+     */
+    static int add(Connection connection, String table, Map<String, Map<String, Long>> deltasByColumn)
+            throws SQLException {
+        TreeSet<String> ids = new TreeSet<>();
+        deltasByColumn.values().forEach(deltas -> ids.addAll(deltas.keySet()));
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        List<String> sortedIds = new ArrayList<>(ids);
+        int updated = 0;
+        for (int start = 0; start < sortedIds.size(); start += InListQuery.MAX_SIZE) {
+            List<String> chunk = sortedIds.subList(start, Math.min(start + InListQuery.MAX_SIZE, sortedIds.size()));
+            int bucket = InListQuery.bucketSize(chunk.size());
+            List<String> paddedIds = new ArrayList<>(bucket);
+            for (int i = 0; i < bucket; i++) {
+                paddedIds.add(chunk.get(Math.min(i, chunk.size() - 1)));
+            }
+            List<Object> params = new ArrayList<>();
+            List<String> assignments = new ArrayList<>();
+            for (Map.Entry<String, Map<String, Long>> column : deltasByColumn.entrySet()) {
+                Map<String, Long> deltas = column.getValue();
+                if (chunk.stream().allMatch(id -> deltas.getOrDefault(id, 0L) == 0)) {
+                    continue;
+                }
+                StringBuilder assignment = new StringBuilder(column.getKey()).append(" = ")
+                        .append(column.getKey()).append(" + case id");
+                for (String id : paddedIds) {
+                    assignment.append(" when ? then ?");
+                    params.add(id);
+                    params.add(deltas.getOrDefault(id, 0L));
+                }
+                assignments.add(assignment.append(" else 0 end").toString());
+            }
+            if (assignments.isEmpty()) {
+                continue;
+            }
+            params.addAll(paddedIds);
+            String query = "update " + table + " set " + String.join(", ", assignments) + " where id in "
+                    + InListQuery.placeholders(bucket);
+            try (PreparedStatement statement = connection.prepareStatement(query)) {
+                for (int i = 0; i < params.size(); i++) {
+                    statement.setObject(i + 1, params.get(i));
+                }
+                updated += statement.executeUpdate();
+            }
+        }
+        return updated;
+    }
+
+}
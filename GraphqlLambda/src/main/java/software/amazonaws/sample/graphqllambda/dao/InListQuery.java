@@ -0,0 +1,84 @@
+//  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//  SPDX-License-Identifier: MIT-0
+
+package software.amazonaws.sample.graphqllambda.dao;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Runs "where column in (...)" queries with bound parameters. The number of placeholders is rounded up to one of
+ * {@link #BUCKETS}, padding with the last value, so that any batch size maps to one of a few statement texts that
+ * MySQL and the RDS Proxy can cache. Larger batches are split into chunks of {@link #MAX_SIZE} values, which can be
+ * lowered with DB_IN_LIST_MAX_SIZE.
+ */
+public final class InListQuery {
+
+    static final int[] BUCKETS = {1, 4, 16, 64, 256};
+    public static final int MAX_SIZE = getMaxSize();
+
+    private InListQuery() {
+    }
+
+    @FunctionalInterface
+    public interface RowMapper<T> {
+        T map(ResultSet results) throws SQLException;
+    }
+
+    /**
+     * Runs queryPrefix + "(?, ?, ...)" + querySuffix for every chunk of the distinct values on one connection.
+     */
+    public static <T> List<T> query(DataSource dataSource, String queryPrefix, String querySuffix,
+                                    List<String> values, RowMapper<T> rowMapper) throws SQLException {
+        List<T> rows = new ArrayList<>();
+        List<String> distinctValues = new ArrayList<>(new LinkedHashSet<>(values));
+        if (distinctValues.isEmpty()) {
+            return rows;
+        }
+        try (Connection connection = dataSource.getConnection()) {
+            for (int start = 0; start < distinctValues.size(); start += MAX_SIZE) {
+                List<String> chunk = distinctValues.subList(start, Math.min(start + MAX_SIZE, distinctValues.size()));
+                int bucket = bucketSize(chunk.size());
+                try (PreparedStatement preparedStatement = connection.prepareStatement(
+                        queryPrefix + placeholders(bucket) + querySuffix)) {
+                    for (int i = 0; i < bucket; i++) {
+                        preparedStatement.setString(i + 1, chunk.get(Math.min(i, chunk.size() - 1)));
+                    }
+                    try (ResultSet results = preparedStatement.executeQuery()) {
+                        while (results.next()) {
+                            rows.add(rowMapper.map(results));
+                        }
+                    }
+                }
+            }
+        }
+        return rows;
+    }
+
+    static int bucketSize(int size) {
+        for (int bucket : BUCKETS) {
+            if (bucket >= size && bucket <= MAX_SIZE) {
+                return bucket;
+            }
+        }
+        return MAX_SIZE;
+    }
+
+    static String placeholders(int count) {
+        return "(" + String.join(", ", Collections.nCopies(count, "?")) + ")";
+    }
+
+    private static int getMaxSize() {
+        String value = System.getenv("DB_IN_LIST_MAX_SIZE");
+        int maxSize = value == null || value.isEmpty() ? BUCKETS[BUCKETS.length - 1] : Integer.parseInt(value);
+        return Math.max(1, Math.min(maxSize, BUCKETS[BUCKETS.length - 1]));
+    }
+
+}
@@ -0,0 +1,22 @@
+//  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//  SPDX-License-Identifier: MIT-0
+
+package software.amazonaws.sample.graphqllambda.dao;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Up to limit rows of one parent with an id greater than afterId, projected to the {@link Columns} mask. Also used
+ * as DataLoader key, so equal requests within an operation are loaded once.
+ */
+@Data
+@AllArgsConstructor
+public class PageRequest {
+
+    String parentId;
+    String afterId;
+    int limit;
+    int columns;
+
+}
@@ -0,0 +1,96 @@
+//  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//  SPDX-License-Identifier: MIT-0
+
+package software.amazonaws.sample.graphqllambda.dao;
+
+import software.amazonaws.sample.graphqllambda.entity.Edge;
+import software.amazonaws.sample.graphqllambda.entity.Page;
+import software.amazonaws.sample.graphqllambda.entity.PageInfo;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Limits and cursors for keyset pagination. Pages are ordered by id and the cursor is the opaque, base64 encoded id
+ * of the last row, so the next page is "id > cursor" and never needs OFFSET.
+ * <p>
+ * Page sizes are capped at MAX_PAGE_SIZE (default 100). The legacy list fields are capped at MAX_LIST_SIZE rows
+ * (default 500), per parent for Post.comments, and report the cut in the truncatedLists response extension.
+ */
+public final class Pagination {
+
+    public static final int MAX_PAGE_SIZE = getIntEnv("MAX_PAGE_SIZE", 100);
+    public static final int MAX_LIST_SIZE = getIntEnv("MAX_LIST_SIZE", 500);
+    // Rows read for a legacy list field, the extra row tells that the list is truncated
+    public static final int LIST_FETCH_SIZE = MAX_LIST_SIZE + 1;
+    private static final String CURSOR_PREFIX = "cursor:";
+
+    private Pagination() {
+    }
+
+    /**
+     * Returns the page size for the requested first argument, capped at {@link #MAX_PAGE_SIZE}.
+     */
+    public static int pageSize(Integer first) {
+        if (first == null) {
+            return MAX_PAGE_SIZE;
+        }
+        if (first < 0) {
+            throw new IllegalArgumentException("first must not be negative");
+        }
+        return Math.min(first, MAX_PAGE_SIZE);
+    }
+
+    /**
+     * Returns the id to continue after, or an empty string, which sorts before every id, for the first page.
+     */
+    public static String afterId(String after) {
+        if (after == null || after.isEmpty()) {
+            return "";
+        }
+        String decoded;
+        try {
+            decoded = new String(Base64.getUrlDecoder().decode(after), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor " + after);
+        }
+        if (!decoded.startsWith(CURSOR_PREFIX)) {
+            throw new IllegalArgumentException("Invalid cursor " + after);
+        }
+        return decoded.substring(CURSOR_PREFIX.length());
+    }
+
+    public static String cursor(String id) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((CURSOR_PREFIX + id).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Builds a page from rows loaded with a limit of pageSize + 1, the extra row only tells that there is a next page.
+     */
+    public static <T> Page<T> toPage(List<T> rows, int pageSize, Function<T, String> idFunction) {
+        List<Edge<T>> edges = rows.stream()
+                .limit(pageSize)
+                .map(row -> Edge.<T>builder()
+                        .cursor(cursor(idFunction.apply(row)))
+                        .node(row)
+                        .build())
+                .collect(Collectors.toList());
+        return Page.<T>builder()
+                .edges(edges)
+                .pageInfo(PageInfo.builder()
+                        .hasNextPage(rows.size() > pageSize)
+                        .endCursor(edges.isEmpty() ? null : edges.get(edges.size() - 1).getCursor())
+                        .build())
+                .build();
+    }
+
+    private static int getIntEnv(String name, int defaultValue) {
+        String value = System.getenv(name);
+        return value == null || value.isEmpty() ? defaultValue : Integer.parseInt(value);
+    }
+
+}
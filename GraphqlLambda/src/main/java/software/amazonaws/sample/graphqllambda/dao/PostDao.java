@@ -7,77 +7,236 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import software.amazonaws.sample.graphqllambda.entity.Post;
 
+import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 public class PostDao {
 
     private static final Logger logger = LogManager.getLogger(PostDao.class);
-    private Connection connection;
+    private DataSource dataSource;
 
-    public PostDao(Connection connection) {
-        this.connection = connection;
+    public PostDao(DataSource dataSource) {
+        this.dataSource = dataSource;
     }
 
-    public Post getPostById(String postId) throws SQLException {
+    public Post getPostById(String postId, int columns) throws SQLException {
 
-        String query = "select id, author, content, views from posts "
+        String query = "select " + Columns.POSTS.select(columns) + " from posts "
                 + "where id = ?";
 
-        List<Post> posts = getPostByField(postId, query);
+        List<Post> posts = getPostByField(postId, query, columns);
         if (posts.size() == 0) {
             return null;
         }
         return posts.get(0);
     }
 
-    public List<Post> getPostByAuthor(String author) throws SQLException {
+    public List<Post> getPostByAuthor(String author, int columns) throws SQLException {
 
-        String query = "select id, author, content, views from posts "
-                + "where author = ?";
+        String query = "select " + Columns.POSTS.select(columns) + " from posts "
+                + "where author = ? order by id limit " + Pagination.LIST_FETCH_SIZE;
 
-        return getPostByField(author, query);
+        return getPostByField(author, query, columns);
     }
 
-    private List<Post> getPostByField(String param, String query) throws SQLException {
+    /**
+     * Returns up to limit posts of the author with an id greater than afterId, ordered by id.
+     */
+    public List<Post> getPostsPageByAuthor(String author, String afterId, int limit, int columns) throws SQLException {
+        String query = "select " + Columns.POSTS.select(columns) + " from posts "
+                + "where author = ? and id > ? order by id limit ?";
+
+        List<Post> posts = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(query)) {
+            preparedStatement.setString(1, author);
+            preparedStatement.setString(2, afterId);
+            preparedStatement.setInt(3, limit);
+            try (ResultSet results = preparedStatement.executeQuery()) {
+                while (results.next()) {
+                    posts.add(toPost(results, columns));
+                }
+            }
+        }
+        return posts;
+    }
+
+    public List<Post> getPostsByIds(List<String> postIds, int columns) throws SQLException {
+        String query = "select " + Columns.POSTS.select(columns) + " from posts "
+                + "where id in ";
+
+        return InListQuery.query(dataSource, query, "", postIds, results -> toPost(results, columns));
+    }
+
+    private List<Post> getPostByField(String param, String query, int columns) throws SQLException {
+        List<Post> posts = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(query)) {
+            preparedStatement.setString(1, param);
+            logger.debug("Prepared Statement::{}", preparedStatement);
+            try (ResultSet results = preparedStatement.executeQuery()) {
+                while (results.next()) {
+                    posts.add(toPost(results, columns));
+                }
+            }
+        }
+        return posts;
+    }
+
+    /**
+     * Maps the selected columns, the other fields stay null.
+     */
+    private Post toPost(ResultSet results, int columns) throws SQLException {
+        return toPost(results, columns, "");
+    }
+
+    private Post toPost(ResultSet results, int columns, String prefix) throws SQLException {
+        Post.PostBuilder post = Post.builder()
+                .id(results.getString(prefix + "id"));
+        if (Columns.POSTS.has(columns, "author")) {
+            post.author(results.getString(prefix + "author"));
+        }
+        if (Columns.POSTS.has(columns, "content")) {
+            post.content(results.getString(prefix + "content"));
+        }
+        if (Columns.POSTS.has(columns, "views")) {
+            post.views(results.getInt(prefix + "views"));
+        }
+        if (Columns.POSTS.has(columns, "commentCount")) {
+            post.commentCount(results.getInt(prefix + "commentCount"));
+        }
+        return post.build();
+    }
+
+    /**
+     * Loads the post and its comments with one join. Returns null when the post does not exist.
+     */
+    public Post getPostWithCommentsById(String postId, int columns, int commentColumns) throws SQLException {
+        String query = "select " + Columns.POSTS.select(columns, "p") + ", " + Columns.COMMENTS.select(commentColumns, "c")
+                + " from posts p left join comments c on c.postId = p.id "
+                + "where p.id = ? order by c.id limit " + Pagination.LIST_FETCH_SIZE;
+
+        List<Post> posts = getPostsWithComments(postId, query, columns, commentColumns);
+        if (posts.size() == 0) {
+            return null;
+        }
+        return posts.get(0);
+    }
+
+    /**
+     * Loads the posts of the author and their comments with one join. The post ids are limited in the ids table and
+     * the comments are numbered per post in the ranked table, so the database returns at most
+     * {@link Pagination#LIST_FETCH_SIZE} comments for each of at most {@link Pagination#LIST_FETCH_SIZE} posts.
+     */
+    public List<Post> getPostsWithCommentsByAuthor(String author, int columns, int commentColumns) throws SQLException {
+        String query = "with ids as (select id from posts where author = ? order by id limit " + Pagination.LIST_FETCH_SIZE + "), "
+                + "ranked as (select cm.*, row_number() over (partition by cm.postId order by cm.id) as rn "
+                + "from ids join comments cm on cm.postId = ids.id) "
+                + "select " + Columns.POSTS.select(columns, "p") + ", " + Columns.COMMENTS.select(commentColumns, "c")
+                + " from ids join posts p on p.id = ids.id "
+                + "left join ranked c on c.postId = p.id and c.rn <= " + Pagination.LIST_FETCH_SIZE + " order by p.id, c.id";
+
+        return getPostsWithComments(author, query, columns, commentColumns);
+    }
+
+    /**
+     * Splits the joined rows, ordered by post, into posts with their comments set. A post without comments comes as
+     * one row with null comment columns. At most {@link Pagination#LIST_FETCH_SIZE} comments are kept per
+     * post, Post.comments truncates them.
+     */
+    private List<Post> getPostsWithComments(String param, String query, int columns, int commentColumns)
+            throws SQLException {
         List<Post> posts = new ArrayList<>();
-        PreparedStatement preparedStatement = connection.prepareStatement(query);
-        preparedStatement.setString(1, param);
-        logger.info("Prepared Statement::" + preparedStatement.toString());
-        ResultSet results = preparedStatement.executeQuery();
-
-        while (results.next()) {
-            posts.add(Post.builder()
-                    .id(results.getString("id"))
-                    .author(results.getString("author"))
-                    .content(results.getString("content"))
-                    .views(results.getInt("views"))
-                    .build());
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(query)) {
+            preparedStatement.setString(1, param);
+            try (ResultSet results = preparedStatement.executeQuery()) {
+                Post post = null;
+                while (results.next()) {
+                    String postId = results.getString("p_id");
+                    if (post == null || !post.getId().equals(postId)) {
+                        post = toPost(results, columns, "p_");
+                        post.setComments(new ArrayList<>());
+                        posts.add(post);
+                    }
+                    if (results.getString("c_id") != null && post.getComments().size() < Pagination.LIST_FETCH_SIZE) {
+                        post.getComments().add(CommentDao.toComment(results, commentColumns, "c_"));
+                    }
+                }
+            }
         }
         return posts;
     }
 
     public void createPost(Post post) throws SQLException {
-        String query = "insert into posts(id, author, content, views) values (?, ? , ?, ?)";
-        PreparedStatement statement = connection.prepareStatement(query);
-        statement.setString(1, post.getId());
-        statement.setString(2, post.getAuthor());
-        statement.setString(3, post.getContent());
-        statement.setInt(4, post.getViews());
-        statement.executeUpdate();
+        String query = "insert into posts(id, author, content, views, commentCount) values (?, ? , ?, ?, 0)";
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(query)) {
+            statement.setString(1, post.getId());
+            statement.setString(2, post.getAuthor());
+            statement.setString(3, post.getContent());
+            statement.setInt(4, post.getViews());
+            statement.executeUpdate();
+        }
+
+    }
+
+    /**
+     * Returns the comment count per post id. Posts that do not exist are missing from the map.
+     */
+    public Map<String, Integer> getCommentCounts(List<String> postIds) throws SQLException {
+        String query = "select id, commentCount from posts "
+                + "where id in ";
+
+        return InListQuery.query(dataSource, query, "", postIds,
+                        results -> Map.entry(results.getString("id"), results.getInt("commentCount")))
+                .stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+    }
 
+    /**
+     * Folds the view slots of up to limit posts that were not viewed for idleSeconds into posts.views. Returns the
+     * number of collapsed posts.
+     */
+    public int collapseViewShards(int idleSeconds, int limit) throws SQLException {
+        return ShardedCounters.POST_VIEWS.collapse(dataSource, idleSeconds, limit);
     }
 
-    public void incrementViewCount(String postId) throws SQLException {
-        String query = "update posts set views = views+1 where id = ?";
-        PreparedStatement statement = connection.prepareStatement(query);
-        statement.setString(1, postId);
-        statement.executeUpdate();
+    /**
+     * Adds the view deltas, keyed by post id, with one update per chunk of posts.
+     */
+    public int addViews(Map<String, Long> views) throws SQLException {
+        return CounterUpdate.add(dataSource, "posts", Map.of("views", views));
     }
 
+    /**
+     * Adds a view and returns the post with the selected columns in one round trip, see
+     * {@link ReturningUpdate#callAndMap}. With {@link ShardedCounters} enabled the view goes to a random slot of the
+     * post. Returns null when the post does not exist.
+     */
+    public Post incrementViewCount(String postId, int columns) throws SQLException {
+        if (ShardedCounters.isEnabled()) {
+            return ReturningUpdate.callAndMap(dataSource, "call view_post(?, ?)",
+                    List.of(postId, ShardedCounters.randomSlot()), results -> toPost(results, columns));
+        }
+        return ReturningUpdate.callAndMap(dataSource, "call view_post(?, null)", List.of(postId),
+                results -> toPost(results, columns));
+    }
+
+    /**
+     * Adds a view and returns only the new number of views, or null when the post does not exist. Not for
+     * {@link ShardedCounters}, see {@link CommentDao#upVoteAndGetUpvotes(String)}.
+     */
+    public Integer incrementAndGetViews(String postId) throws SQLException {
+        return ReturningUpdate.updateCounter(dataSource,
+                "update posts set views = last_insert_id(views+1) where id = ?", postId);
+    }
 
 }
@@ -0,0 +1,19 @@
+//  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//  SPDX-License-Identifier: MIT-0
+
+package software.amazonaws.sample.graphqllambda.dao;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * DataLoader key of a row and the {@link Columns} mask to load it with.
+ */
+@Data
+@AllArgsConstructor
+public class ProjectedId {
+
+    String id;
+    int columns;
+
+}
@@ -0,0 +1,71 @@
+//  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//  SPDX-License-Identifier: MIT-0
+
+package software.amazonaws.sample.graphqllambda.dao;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * Runs a single row update and returns the updated row or counter.
+ * <ul>
+ *     <li>{@link #updateCounter} updates a counter with "column = last_insert_id(expr)". MySQL returns the last
+ *     insert id in the OK packet of the update, so the new value comes back as generated key in one round trip.
+ *     Mutations that only select the counter use it.</li>
+ *     <li>{@link #callAndMap} calls a stored procedure that runs the update and the select of the row on the
+ *     server, so the row also comes back in one round trip. A CALL is a single statement, so connections keep
+ *     allowMultiQueries off and a SQL concatenation bug cannot stack queries.</li>
+ * </ul>
+ */
+public final class ReturningUpdate {
+
+    private ReturningUpdate() {
+    }
+
+    /**
+     * Calls a procedure of the V6 migration that updates one row and returns it as its result set, so the update
+     * and the row take one round trip.
+     *
+     * @param call the call statement, e.g. "call vote_comment(?, ?, null)"
+     * @return the returned row, or null when the row does not exist
+     */
+    static <T> T callAndMap(DataSource dataSource, String call, List<Object> params,
+                            InListQuery.RowMapper<T> rowMapper) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(call)) {
+            setParams(statement, params);
+            try (ResultSet results = statement.executeQuery()) {
+                return results.next() ? rowMapper.map(results) : null;
+            }
+        }
+    }
+
+    /**
+     * @param update update of one row that sets the counter to last_insert_id(expr)
+     * @return the new counter value, or null when no row was updated
+     */
+    static Integer updateCounter(DataSource dataSource, String update, String id) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(update, Statement.RETURN_GENERATED_KEYS)) {
+            statement.setString(1, id);
+            if (statement.executeUpdate() == 0) {
+                return null;
+            }
+            try (ResultSet keys = statement.getGeneratedKeys()) {
+                return keys.next() ? keys.getInt(1) : null;
+            }
+        }
+    }
+
+    private static void setParams(PreparedStatement statement, List<Object> params) throws SQLException {
+        for (int i = 0; i < params.size(); i++) {
+            statement.setObject(i + 1, params.get(i));
+        }
+    }
+
+}
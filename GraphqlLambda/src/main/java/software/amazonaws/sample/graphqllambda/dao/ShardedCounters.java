@@ -0,0 +1,149 @@
+//  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//  SPDX-License-Identifier: MIT-0
+
+package software.amazonaws.sample.graphqllambda.dao;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Sharded counter storage. With COUNTER_SHARDS set to N > 0, increments of comment votes and post views go to one
+ * of N slot rows per entity in comment_vote_shards and post_view_shards, picked at random, so concurrent increments
+ * of a hot entity lock different rows. The counter columns of comments and posts keep the collapsed base value and
+ * reads add the sum of the slots. The vote_comment and view_post procedures of the V6 migration add to the slots.
+ * <p>
+ * {@link #collapse} folds the slots of entities that were not incremented for a while back into the base columns.
+ */
+public final class ShardedCounters {
+
+    public static final int SHARDS = getIntEnv("COUNTER_SHARDS", 0);
+
+    static final ShardedCounters COMMENT_VOTES = new ShardedCounters("comments", "comment_vote_shards", "commentId",
+            List.of("upvotes", "downvotes"));
+    static final ShardedCounters POST_VIEWS = new ShardedCounters("posts", "post_view_shards", "postId",
+            List.of("views"));
+
+    private final String table;
+    private final String shardTable;
+    private final String idColumn;
+    private final List<String> columns;
+
+    private ShardedCounters(String table, String shardTable, String idColumn, List<String> columns) {
+        this.table = table;
+        this.shardTable = shardTable;
+        this.idColumn = idColumn;
+        this.columns = columns;
+    }
+
+    public static boolean isEnabled() {
+        return SHARDS > 0;
+    }
+
+    boolean hasColumn(String column) {
+        return columns.contains(column);
+    }
+
+    /**
+     * Returns the select expression of a counter column, the base value plus the sum of the slots.
+     *
+     * @param qualifier table name or alias that qualifies the id of the row
+     */
+    String sumExpression(String column, String qualifier) {
+        return qualifier + "." + column + " + (select coalesce(sum(s." + column + "), 0) from " + shardTable
+                + " s where s." + idColumn + " = " + qualifier + ".id)";
+    }
+
+    static int randomSlot() {
+        return ThreadLocalRandom.current().nextInt(SHARDS);
+    }
+
+    /**
+     * Folds the slots of up to limit entities without an increment in the last idleSeconds into the base columns
+     * and deletes them. Each chunk runs in a transaction that locks the slot rows it reads and deletes only those,
+     * so an increment of a locked slot waits and then inserts a new slot, and a new slot is left for the next
+     * collapse. Returns the number of collapsed entities.
+     */
+    int collapse(DataSource dataSource, int idleSeconds, int limit) throws SQLException {
+        String selectCold = "select " + idColumn + " from " + shardTable + " group by " + idColumn
+                + " having max(updatedAt) < now() - interval ? second limit ?";
+        List<String> ids = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(selectCold)) {
+            statement.setInt(1, idleSeconds);
+            statement.setInt(2, limit);
+            try (ResultSet results = statement.executeQuery()) {
+                while (results.next()) {
+                    ids.add(results.getString(1));
+                }
+            }
+        }
+        Collections.sort(ids);
+        for (int start = 0; start < ids.size(); start += InListQuery.MAX_SIZE) {
+            collapseChunk(dataSource, ids.subList(start, Math.min(start + InListQuery.MAX_SIZE, ids.size())));
+        }
+        return ids.size();
+    }
+
+    private void collapseChunk(DataSource dataSource, List<String> ids) throws SQLException {
+        String in = InListQuery.placeholders(ids.size());
+        String lockShards = "select " + idColumn + ", slot, " + String.join(", ", columns) + " from " + shardTable
+                + " where " + idColumn + " in " + in + " for update";
+        String deleteShard = "delete from " + shardTable + " where " + idColumn + " = ? and slot = ?";
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                Map<String, Map<String, Long>> deltasByColumn = new HashMap<>();
+                columns.forEach(column -> deltasByColumn.put(column, new HashMap<>()));
+                List<Map.Entry<String, Integer>> slots = new ArrayList<>();
+                try (PreparedStatement statement = connection.prepareStatement(lockShards)) {
+                    setIds(statement, ids);
+                    try (ResultSet results = statement.executeQuery()) {
+                        while (results.next()) {
+                            slots.add(Map.entry(results.getString(idColumn), results.getInt("slot")));
+                            for (String column : columns) {
+                                deltasByColumn.get(column).merge(results.getString(idColumn),
+                                        results.getLong(column), Long::sum);
+                            }
+                        }
+                    }
+                }
+                CounterUpdate.add(connection, table, deltasByColumn);
+                try (PreparedStatement statement = connection.prepareStatement(deleteShard)) {
+                    for (Map.Entry<String, Integer> slot : slots) {
+                        statement.setString(1, slot.getKey());
+                        statement.setInt(2, slot.getValue());
+                        statement.addBatch();
+                    }
+                    statement.executeBatch();
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    private static void setIds(PreparedStatement statement, List<String> ids) throws SQLException {
+        for (int i = 0; i < ids.size(); i++) {
+            statement.setString(i + 1, ids.get(i));
+        }
+    }
+
+    private static int getIntEnv(String name, int defaultValue) {
+        String value = System.getenv(name);
+        return value == null || value.isEmpty() ? defaultValue : Integer.parseInt(value);
+    }
+
+}
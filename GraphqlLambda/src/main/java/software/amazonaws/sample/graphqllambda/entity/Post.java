@@ -20,5 +20,6 @@ public class Post {
     String author;
     String content;
     Integer views;
+    Integer commentCount;
     List<Comment> comments;
 }
@@ -4,56 +4,118 @@
 package software.amazonaws.sample.graphqllambda.service;
 
 import graphql.schema.DataFetcher;
+import graphql.schema.DataFetchingEnvironment;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.dataloader.BatchLoader;
 import org.dataloader.DataLoader;
+import software.amazonaws.sample.graphqllambda.dao.Columns;
 import software.amazonaws.sample.graphqllambda.dao.CommentDao;
+import software.amazonaws.sample.graphqllambda.dao.PageRequest;
+import software.amazonaws.sample.graphqllambda.dao.Pagination;
+import software.amazonaws.sample.graphqllambda.dao.ShardedCounters;
 import software.amazonaws.sample.graphqllambda.entity.Comment;
+import software.amazonaws.sample.graphqllambda.entity.Page;
 import software.amazonaws.sample.graphqllambda.entity.Post;
+import software.amazonaws.sample.graphqllambda.service.CounterAggregator.Counter;
+import software.amazonaws.sample.graphqllambda.util.ListTruncationInstrumentation;
+import software.amazonaws.sample.graphqllambda.util.RequestMetrics;
 
-import java.sql.Connection;
+import javax.sql.DataSource;
 import java.sql.SQLException;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
-import java.util.stream.Collectors;
+import java.util.concurrent.Executor;
 
 public class CommentsDataService {
 
     private static final Logger logger = LogManager.getLogger(CommentsDataService.class);
 
     private CommentDao commentDao;
+    private Executor executor;
+    private CounterAggregator counterAggregator;
 
-    public CommentsDataService(Connection connection) {
-        this.commentDao = new CommentDao(connection);
+    public CommentsDataService(DataSource dataSource, Executor executor, CounterAggregator counterAggregator) {
+        this.commentDao = new CommentDao(dataSource);
+        this.executor = executor;
+        this.counterAggregator = counterAggregator;
     }
 
+    /**
+     * Loads at most {@link Pagination#MAX_LIST_SIZE} comments per post, use Post.commentsConnection to page
+     * through the rest. Posts loaded together with their comments return those. Cut lists are reported by
+     * {@link ListTruncationInstrumentation}.
+     */
     public DataFetcher getCommentByPostFetcher() {
         return dataFetchingEnvironment -> {
             Post post = dataFetchingEnvironment.getSource();
-            DataLoader<String, List<String>> dataLoader = dataFetchingEnvironment.getDataLoader("comments");
-            return dataLoader.load(post.getId());
+            if (post.getComments() != null) {
+                return ListTruncationInstrumentation.truncate(dataFetchingEnvironment, post.getComments());
+            }
+            int columns = Selections.columns(Columns.COMMENTS, dataFetchingEnvironment.getSelectionSet(), "*");
+            DataLoader<PageRequest, List<Comment>> dataLoader = dataFetchingEnvironment.getDataLoader("commentPages");
+            return dataLoader.load(new PageRequest(post.getId(), "", Pagination.LIST_FETCH_SIZE, columns))
+                    .thenApply(comments -> ListTruncationInstrumentation.truncate(dataFetchingEnvironment, comments));
+        };
+    }
+
+    public DataFetcher getCommentsPageByPostFetcher() {
+        return dataFetchingEnvironment -> {
+            Post post = dataFetchingEnvironment.getSource();
+            return loadCommentsPage(dataFetchingEnvironment, post.getId());
+        };
+    }
+
+    public DataFetcher getCommentsPageByPostIdFetcher() {
+        return dataFetchingEnvironment -> loadCommentsPage(dataFetchingEnvironment,
+                dataFetchingEnvironment.getArgument("postId"));
+    }
+
+    public DataFetcher getCommentsPageByAuthorFetcher() {
+        return dataFetchingEnvironment -> {
+            String author = dataFetchingEnvironment.getArgument("author");
+            int pageSize = Pagination.pageSize(dataFetchingEnvironment.getArgument("first"));
+            String afterId = Pagination.afterId(dataFetchingEnvironment.getArgument("after"));
+            int columns = Selections.columns(Columns.COMMENTS, dataFetchingEnvironment.getSelectionSet(), "edges/node/*");
+            List<Comment> comments = commentDao.getCommentsPageByAuthor(author, afterId, pageSize + 1, columns);
+            return Pagination.toPage(comments, pageSize, Comment::getId);
         };
     }
 
+    /**
+     * Pages of different posts are batched into one query by the commentPages DataLoader.
+     */
+    private CompletableFuture<Page<Comment>> loadCommentsPage(DataFetchingEnvironment dataFetchingEnvironment,
+                                                              String postId) {
+        int pageSize = Pagination.pageSize(dataFetchingEnvironment.getArgument("first"));
+        String afterId = Pagination.afterId(dataFetchingEnvironment.getArgument("after"));
+        int columns = Selections.columns(Columns.COMMENTS, dataFetchingEnvironment.getSelectionSet(), "edges/node/*");
+        DataLoader<PageRequest, List<Comment>> dataLoader = dataFetchingEnvironment.getDataLoader("commentPages");
+        return dataLoader.load(new PageRequest(postId, afterId, pageSize + 1, columns))
+                .thenApply(comments -> Pagination.toPage(comments, pageSize, Comment::getId));
+    }
+
     public DataFetcher getCommentsCountFetcher() {
         return dataFetchingEnvironment -> {
             String postId = dataFetchingEnvironment.getArgument("postId");
-            return commentDao.getCommentsByPost(postId).size();
+            DataLoader<String, Integer> dataLoader = dataFetchingEnvironment.getDataLoader("commentCounts");
+            return dataLoader.load(postId);
         };
     }
 
     public DataFetcher getCommentByAuthorFetcher() {
         return dataFetchingEnvironment -> {
             String author = dataFetchingEnvironment.getArgument("author");
-            return commentDao.getCommentsByAuthor(author);
+            return ListTruncationInstrumentation.truncate(dataFetchingEnvironment, commentDao.getCommentsByAuthor(author,
+                    Selections.columns(Columns.COMMENTS, dataFetchingEnvironment.getSelectionSet(), "*")));
         };
     }
 
     public DataFetcher getCommentByPostIdFetcher() {
         return dataFetchingEnvironment -> {
             String postId = dataFetchingEnvironment.getArgument("postId");
-            return commentDao.getCommentsByAuthor(postId);
+            return ListTruncationInstrumentation.truncate(dataFetchingEnvironment, commentDao.getCommentsByPost(postId,
+                    Selections.columns(Columns.COMMENTS, dataFetchingEnvironment.getSelectionSet(), "*")));
         };
     }
 
@@ -72,39 +134,69 @@ public class CommentsDataService {
         };
     }
 
+    /**
+     * When only the id and the upvotes are selected the new count comes back with the update, otherwise the
+     * vote_comment procedure returns the updated comment. Both take one round trip. With counter
+     * aggregation the vote is added to the {@link CounterAggregator} and the returned comment includes the votes
+     * that are not written yet.
+     */
     public DataFetcher upvoteCommentFetcher() {
         return dataFetchingEnvironment -> {
             String commentId = dataFetchingEnvironment.getArgument("id");
-            commentDao.upVoteComment(commentId);
-            return commentDao.getCommentsById(commentId);
+            int columns = Selections.columns(Columns.COMMENTS, dataFetchingEnvironment.getSelectionSet(), "*");
+            if (counterAggregator.isEnabled()) {
+                counterAggregator.increment(Counter.UPVOTES, commentId,
+                        dataFetchingEnvironment.getGraphQlContext().get(RequestMetrics.class));
+                return withPendingVotes(commentDao.getCommentsById(commentId, columns));
+            }
+            if (!ShardedCounters.isEnabled()
+                    && Selections.selectsOnly(dataFetchingEnvironment.getSelectionSet(), "id", "upvotes")) {
+                Integer upvotes = commentDao.upVoteAndGetUpvotes(commentId);
+                return upvotes == null ? null : Comment.builder().id(commentId).upvotes(upvotes).build();
+            }
+            return commentDao.upVoteComment(commentId, columns);
         };
     }
 
     public DataFetcher downvoteCommentFetcher() {
         return dataFetchingEnvironment -> {
             String commentId = dataFetchingEnvironment.getArgument("id");
-            commentDao.downVoteComment(commentId);
-            return commentDao.getCommentsById(commentId);
+            int columns = Selections.columns(Columns.COMMENTS, dataFetchingEnvironment.getSelectionSet(), "*");
+            if (counterAggregator.isEnabled()) {
+                counterAggregator.increment(Counter.DOWNVOTES, commentId,
+                        dataFetchingEnvironment.getGraphQlContext().get(RequestMetrics.class));
+                return withPendingVotes(commentDao.getCommentsById(commentId, columns));
+            }
+            if (!ShardedCounters.isEnabled()
+                    && Selections.selectsOnly(dataFetchingEnvironment.getSelectionSet(), "id", "downvotes")) {
+                Integer downvotes = commentDao.downVoteAndGetDownvotes(commentId);
+                return downvotes == null ? null : Comment.builder().id(commentId).downvotes(downvotes).build();
+            }
+            return commentDao.downVoteComment(commentId, columns);
         };
     }
 
-    public BatchLoader<String, List<Comment>> getCommentsDataLoader() {
-        return list -> CompletableFuture.supplyAsync(() -> getCommentsForMultiplePostIds(list));
+    private Comment withPendingVotes(Comment comment) {
+        if (comment == null) {
+            return null;
+        }
+        if (comment.getUpvotes() != null) {
+            comment.setUpvotes(comment.getUpvotes() + (int) counterAggregator.pending(Counter.UPVOTES, comment.getId()));
+        }
+        if (comment.getDownvotes() != null) {
+            comment.setDownvotes(comment.getDownvotes()
+                    + (int) counterAggregator.pending(Counter.DOWNVOTES, comment.getId()));
+        }
+        return comment;
     }
 
-    private List<List<Comment>> getCommentsForMultiplePostIds(List<String> postIds) {
-        try {
-            List<Comment> commentList = commentDao.getCommentsByPostIds(postIds);
+    public BatchLoader<PageRequest, List<Comment>> getCommentPagesDataLoader() {
+        return list -> CompletableFuture.supplyAsync(() -> getCommentPages(list), executor);
+    }
 
-            Map<String, List<Comment>> bulkComments = new HashMap<>();
-            for (Comment comment : commentList) {
-                List<Comment> tempList = bulkComments.computeIfAbsent(comment.getPostId(), k -> new ArrayList<>());
-                tempList.add(comment);
-                bulkComments.put(comment.getPostId(), tempList);
-            }
-            return postIds.stream()
-                    .map(id -> bulkComments.containsKey(id) ? bulkComments.get(id) : new ArrayList<Comment>())
-                    .collect(Collectors.toList());
+    private List<List<Comment>> getCommentPages(List<PageRequest> requests) {
+        try {
+            return commentDao.getCommentPagesByPostIds(requests);
         } catch (SQLException se) {
             throw new RuntimeException("Error geting comments from DB ", se);
         }
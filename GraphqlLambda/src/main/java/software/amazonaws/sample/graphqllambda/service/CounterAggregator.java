@@ -0,0 +1,233 @@
+//  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//  SPDX-License-Identifier: MIT-0
+
+package software.amazonaws.sample.graphqllambda.service;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import software.amazonaws.sample.graphqllambda.dao.CommentDao;
+import software.amazonaws.sample.graphqllambda.dao.PostDao;
+import software.amazonaws.sample.graphqllambda.util.RequestMetrics;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Accumulates vote and view increments in memory and writes them with one multi-row update per table, so that a
+ * popular post or comment is not locked by an update per increment. Enabled with COUNTER_AGGREGATION=true.
+ * <p>
+ * Pending increments are flushed when COUNTER_FLUSH_SIZE (default 100) rows have pending increments, when the last
+ * flush is older than COUNTER_FLUSH_INTERVAL_MS (default 1000), and before every request returns unless
+ * COUNTER_FLUSH_ON_RETURN is false. Without the flush on return, increments can stay pending between invocations
+ * and are lost if the execution environment is shut down in between.
+ */
+public class CounterAggregator {
+
+    private static final Logger logger = LogManager.getLogger(CounterAggregator.class);
+
+    public enum Counter {
+        UPVOTES, DOWNVOTES, VIEWS
+    }
+
+    private final CommentDao commentDao;
+    private final PostDao postDao;
+    private final boolean enabled;
+    private final int flushSize;
+    private final long flushIntervalMillis;
+    private final boolean flushOnReturn;
+    // add holds the read lock, flush takes the write lock to swap the maps, so no increment is added to a map that
+    // is being flushed
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile Map<Counter, Map<String, LongAdder>> pending = newPending();
+    // Increments of the flushes whose update has not committed yet, still counted by pending()
+    private final Map<Counter, Map<String, Long>> inFlight = newInFlight();
+    private final AtomicInteger pendingRows = new AtomicInteger();
+    private volatile long lastFlush = System.currentTimeMillis();
+
+    CounterAggregator(DataSource dataSource, boolean enabled, int flushSize, long flushIntervalMillis,
+                      boolean flushOnReturn) {
+        this.commentDao = new CommentDao(dataSource);
+        this.postDao = new PostDao(dataSource);
+        this.enabled = enabled;
+        this.flushSize = flushSize;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.flushOnReturn = flushOnReturn;
+    }
+
+    public static CounterAggregator create(DataSource dataSource) {
+        boolean enabled = Boolean.parseBoolean(System.getenv("COUNTER_AGGREGATION"));
+        if (enabled) {
+            logger.info("Aggregating vote and view counters");
+        }
+        return new CounterAggregator(dataSource, enabled,
+                getIntEnv("COUNTER_FLUSH_SIZE", 100),
+                getIntEnv("COUNTER_FLUSH_INTERVAL_MS", 1000),
+                !"false".equals(System.getenv("COUNTER_FLUSH_ON_RETURN")));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Adds an increment and flushes if the size or time limit is reached.
+     */
+    public void increment(Counter counter, String id, RequestMetrics requestMetrics) throws SQLException {
+        lock.readLock().lock();
+        try {
+            pending.get(counter).computeIfAbsent(id, key -> {
+                pendingRows.incrementAndGet();
+                return new LongAdder();
+            }).increment();
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (pendingRows.get() >= flushSize || isFlushDue()) {
+            flush(requestMetrics);
+        }
+    }
+
+    /**
+     * Returns the increments of the row that are not written yet, to add to the value read from the database. This
+     * includes the increments of a running flush until its update has committed.
+     */
+    public long pending(Counter counter, String id) {
+        lock.readLock().lock();
+        try {
+            LongAdder adder = pending.get(counter).get(id);
+            return (adder == null ? 0 : adder.sum()) + inFlight.get(counter).getOrDefault(id, 0L);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Called before the request returns.
+     */
+    public void flushOnReturn(RequestMetrics requestMetrics) {
+        if (!enabled || !(flushOnReturn || isFlushDue())) {
+            return;
+        }
+        try {
+            flush(requestMetrics);
+        } catch (SQLException e) {
+            logger.error("Error flushing counters, the increments stay pending ", e);
+        }
+    }
+
+    /**
+     * Writes all pending increments. If an update fails its increments are added back, so the next flush retries
+     * them.
+     */
+    public void flush(RequestMetrics requestMetrics) throws SQLException {
+        Map<Counter, Map<String, Long>> deltas = new EnumMap<>(Counter.class);
+        lock.writeLock().lock();
+        try {
+            // No increment is added while the write lock is held, so the sums are final
+            pending.forEach((counter, adders) -> {
+                Map<String, Long> counterDeltas = new HashMap<>();
+                adders.forEach((id, adder) -> counterDeltas.put(id, adder.sum()));
+                deltas.put(counter, counterDeltas);
+                counterDeltas.forEach((id, delta) -> inFlight.get(counter).merge(id, delta, CounterAggregator::sum));
+            });
+            pending = newPending();
+            pendingRows.set(0);
+            lastFlush = System.currentTimeMillis();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        try {
+            if (!deltas.get(Counter.UPVOTES).isEmpty() || !deltas.get(Counter.DOWNVOTES).isEmpty()) {
+                long start = System.nanoTime();
+                int rows = commentDao.addVotes(deltas.get(Counter.UPVOTES), deltas.get(Counter.DOWNVOTES));
+                recordFlush(requestMetrics, "comments", start, rows);
+                committed(Counter.UPVOTES, deltas.get(Counter.UPVOTES));
+                committed(Counter.DOWNVOTES, deltas.get(Counter.DOWNVOTES));
+            }
+            if (!deltas.get(Counter.VIEWS).isEmpty()) {
+                long start = System.nanoTime();
+                int rows = postDao.addViews(deltas.get(Counter.VIEWS));
+                recordFlush(requestMetrics, "posts", start, rows);
+                committed(Counter.VIEWS, deltas.get(Counter.VIEWS));
+            }
+        } catch (SQLException e) {
+            restore(deltas);
+            throw e;
+        }
+    }
+
+    /**
+     * Removes written increments from the in flight increments and clears them from the deltas of the flush.
+     */
+    private void committed(Counter counter, Map<String, Long> counterDeltas) {
+        counterDeltas.forEach((id, delta) -> inFlight.get(counter).merge(id, -delta, CounterAggregator::sum));
+        counterDeltas.clear();
+    }
+
+    /**
+     * Moves the increments of a failed flush back to pending, in one step so that pending() counts them once.
+     */
+    private void restore(Map<Counter, Map<String, Long>> deltas) {
+        lock.writeLock().lock();
+        try {
+            deltas.forEach((counter, counterDeltas) -> counterDeltas.forEach((id, delta) -> {
+                pending.get(counter).computeIfAbsent(id, key -> {
+                    pendingRows.incrementAndGet();
+                    return new LongAdder();
+                }).add(delta);
+                inFlight.get(counter).merge(id, -delta, CounterAggregator::sum);
+            }));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Drops the entry when the in flight increments of a row reach zero
+    private static Long sum(Long a, Long b) {
+        long sum = a + b;
+        return sum == 0 ? null : sum;
+    }
+
+    private static void recordFlush(RequestMetrics requestMetrics, String table, long start, int rows) {
+        double millis = (System.nanoTime() - start) / 1_000_000.0;
+        logger.debug("Flushed " + rows + " " + table + " counters in " + millis + " ms");
+        if (requestMetrics != null) {
+            requestMetrics.recordCounterFlush(table, millis, rows);
+        }
+    }
+
+    private boolean isFlushDue() {
+        return pendingRows.get() > 0 && System.currentTimeMillis() - lastFlush >= flushIntervalMillis;
+    }
+
+    private static Map<Counter, Map<String, LongAdder>> newPending() {
+        Map<Counter, Map<String, LongAdder>> pending = new EnumMap<>(Counter.class);
+        for (Counter counter : Counter.values()) {
+            pending.put(counter, new ConcurrentHashMap<>());
+        }
+        return pending;
+    }
+
+    private static Map<Counter, Map<String, Long>> newInFlight() {
+        Map<Counter, Map<String, Long>> inFlight = new EnumMap<>(Counter.class);
+        for (Counter counter : Counter.values()) {
+            inFlight.put(counter, new ConcurrentHashMap<>());
+        }
+        return inFlight;
+    }
+
+    private static int getIntEnv(String name, int defaultValue) {
+        String value = System.getenv(name);
+        return value == null || value.isEmpty() ? defaultValue : Integer.parseInt(value);
+    }
+
+}
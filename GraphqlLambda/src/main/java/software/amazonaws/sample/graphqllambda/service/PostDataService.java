@@ -4,34 +4,171 @@
 package software.amazonaws.sample.graphqllambda.service;
 
 import graphql.schema.DataFetcher;
+import graphql.schema.DataFetchingFieldSelectionSet;
+import org.dataloader.BatchLoader;
+import org.dataloader.DataLoader;
+import software.amazonaws.sample.graphqllambda.dao.Columns;
+import software.amazonaws.sample.graphqllambda.dao.Pagination;
 import software.amazonaws.sample.graphqllambda.dao.PostDao;
+import software.amazonaws.sample.graphqllambda.dao.ProjectedId;
+import software.amazonaws.sample.graphqllambda.dao.ShardedCounters;
+import software.amazonaws.sample.graphqllambda.entity.Comment;
 import software.amazonaws.sample.graphqllambda.entity.Post;
+import software.amazonaws.sample.graphqllambda.service.CounterAggregator.Counter;
+import software.amazonaws.sample.graphqllambda.util.ListTruncationInstrumentation;
+import software.amazonaws.sample.graphqllambda.util.RequestMetrics;
 
-import java.sql.Connection;
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 public class PostDataService {
 
     private PostDao postDao;
+    private Executor executor;
+    private CounterAggregator counterAggregator;
 
-    public PostDataService(Connection connection) {
-        this.postDao = new PostDao(connection);
+    public PostDataService(DataSource dataSource, Executor executor, CounterAggregator counterAggregator) {
+        this.postDao = new PostDao(dataSource);
+        this.executor = executor;
+        this.counterAggregator = counterAggregator;
     }
 
     public DataFetcher getPostByIdFetcher() {
         return dataFetchingEnvironment -> {
             String postId = dataFetchingEnvironment.getArgument("id");
-            return postDao.getPostById(postId);
+            int columns = Selections.columns(Columns.POSTS, dataFetchingEnvironment.getSelectionSet(), "*");
+            DataLoader<ProjectedId, Post> dataLoader = dataFetchingEnvironment.getDataLoader("posts");
+            return dataLoader.load(new ProjectedId(postId, columns));
         };
     }
 
+    public DataFetcher getCommentPostFetcher() {
+        return dataFetchingEnvironment -> {
+            Comment comment = dataFetchingEnvironment.getSource();
+            int columns = Selections.columns(Columns.POSTS, dataFetchingEnvironment.getSelectionSet(), "*");
+            DataLoader<ProjectedId, Post> dataLoader = dataFetchingEnvironment.getDataLoader("posts");
+            return dataLoader.load(new ProjectedId(comment.getPostId(), columns));
+        };
+    }
+
+    /**
+     * Posts loaded from the database carry their comment count, other posts load it through the
+     * commentCounts DataLoader.
+     */
+    public DataFetcher getCommentCountFetcher() {
+        return dataFetchingEnvironment -> {
+            Post post = dataFetchingEnvironment.getSource();
+            if (post.getCommentCount() != null) {
+                return post.getCommentCount();
+            }
+            DataLoader<String, Integer> dataLoader = dataFetchingEnvironment.getDataLoader("commentCounts");
+            return dataLoader.load(post.getId());
+        };
+    }
+
+    /**
+     * Also primes the posts DataLoader, so Comment.post does not load these posts again.
+     */
     public DataFetcher getPostByAuthorFetcher() {
         return dataFetchingEnvironment -> {
             String author = dataFetchingEnvironment.getArgument("author");
-            return postDao.getPostByAuthor(author);
+            Set<Integer> commentPostColumns = commentPostColumns(dataFetchingEnvironment.getSelectionSet(), "");
+            int columns = Selections.columns(Columns.POSTS, dataFetchingEnvironment.getSelectionSet(), "*");
+            List<Post> posts = ListTruncationInstrumentation.truncate(dataFetchingEnvironment,
+                    postDao.getPostByAuthor(author, union(columns, commentPostColumns)));
+            prime(dataFetchingEnvironment.getDataLoader("posts"), posts, commentPostColumns);
+            return posts;
+        };
+    }
+
+    public DataFetcher getPostsPageByAuthorFetcher() {
+        return dataFetchingEnvironment -> {
+            String author = dataFetchingEnvironment.getArgument("author");
+            int pageSize = Pagination.pageSize(dataFetchingEnvironment.getArgument("first"));
+            String afterId = Pagination.afterId(dataFetchingEnvironment.getArgument("after"));
+            Set<Integer> commentPostColumns = commentPostColumns(dataFetchingEnvironment.getSelectionSet(), "edges/node/");
+            int columns = Selections.columns(Columns.POSTS, dataFetchingEnvironment.getSelectionSet(), "edges/node/*");
+            List<Post> posts = postDao.getPostsPageByAuthor(author, afterId, pageSize + 1,
+                    union(columns, commentPostColumns));
+            prime(dataFetchingEnvironment.getDataLoader("posts"), posts, commentPostColumns);
+            return Pagination.toPage(posts, pageSize, Post::getId);
+        };
+    }
+
+    /**
+     * Lookahead variant of {@link #getPostByIdFetcher()}. When the query selects the comments of the post, the post
+     * and its comments are loaded with one join and Post.comments needs no further query. Other selections use the
+     * posts DataLoader as before.
+     */
+    public DataFetcher getPostWithCommentsByIdFetcher() {
+        DataFetcher<?> postByIdFetcher = getPostByIdFetcher();
+        return dataFetchingEnvironment -> {
+            DataFetchingFieldSelectionSet selectionSet = dataFetchingEnvironment.getSelectionSet();
+            if (!selectionSet.contains("comments")) {
+                return postByIdFetcher.get(dataFetchingEnvironment);
+            }
+            String postId = dataFetchingEnvironment.getArgument("id");
+            Set<Integer> commentPostColumns = commentPostColumns(selectionSet, "");
+            int columns = Selections.columns(Columns.POSTS, selectionSet, "*");
+            int commentColumns = Selections.columns(Columns.COMMENTS, selectionSet, "comments/*");
+            Post post = postDao.getPostWithCommentsById(postId, union(columns, commentPostColumns), commentColumns);
+            if (post != null) {
+                prime(dataFetchingEnvironment.getDataLoader("posts"), List.of(post), commentPostColumns);
+            }
+            return post;
         };
     }
 
+    /**
+     * Lookahead variant of {@link #getPostByAuthorFetcher()}, loads the comments of the posts with the same join
+     * query when they are selected.
+     */
+    public DataFetcher getPostWithCommentsByAuthorFetcher() {
+        DataFetcher<?> postByAuthorFetcher = getPostByAuthorFetcher();
+        return dataFetchingEnvironment -> {
+            DataFetchingFieldSelectionSet selectionSet = dataFetchingEnvironment.getSelectionSet();
+            if (!selectionSet.contains("comments")) {
+                return postByAuthorFetcher.get(dataFetchingEnvironment);
+            }
+            String author = dataFetchingEnvironment.getArgument("author");
+            Set<Integer> commentPostColumns = commentPostColumns(selectionSet, "");
+            int columns = Selections.columns(Columns.POSTS, selectionSet, "*");
+            int commentColumns = Selections.columns(Columns.COMMENTS, selectionSet, "comments/*");
+            List<Post> posts = ListTruncationInstrumentation.truncate(dataFetchingEnvironment,
+                    postDao.getPostsWithCommentsByAuthor(author, union(columns, commentPostColumns), commentColumns));
+            prime(dataFetchingEnvironment.getDataLoader("posts"), posts, commentPostColumns);
+            return posts;
+        };
+    }
+
+    /**
+     * Returns the column masks of the Comment.post selections below the posts at the path, these are the keys that
+     * Comment.post will load the posts with.
+     */
+    private static Set<Integer> commentPostColumns(DataFetchingFieldSelectionSet selectionSet, String path) {
+        return selectionSet.getFields(path + "comments/post", path + "commentsConnection/edges/node/post").stream()
+                .map(field -> Selections.columns(Columns.POSTS, field.getSelectionSet(), "*"))
+                .collect(Collectors.toSet());
+    }
+
+    private static int union(int columns, Set<Integer> otherColumns) {
+        return otherColumns.stream().reduce(columns, (a, b) -> a | b);
+    }
+
+    private static void prime(DataLoader<ProjectedId, Post> dataLoader, List<Post> posts, Set<Integer> columns) {
+        for (Post post : posts) {
+            columns.forEach(postColumns -> dataLoader.prime(new ProjectedId(post.getId(), postColumns), post));
+        }
+    }
+
     public DataFetcher createPostFetcher() {
         return dataFetchingEnvironment -> {
             String author = dataFetchingEnvironment.getArgument("author");
@@ -42,19 +179,74 @@ public class PostDataService {
                     .author(author)
                     .content(content)
                     .views(0)
+                    .commentCount(0)
                     .build();
             postDao.createPost(post);
             return post;
         };
     }
 
+    /**
+     * Returns the views with the update like {@link CommentsDataService#upvoteCommentFetcher()}. With counter
+     * aggregation the view is added to the {@link CounterAggregator} and the returned post includes the views that
+     * are not written yet.
+     */
     public DataFetcher incrementViewCounterFetcher() {
         return dataFetchingEnvironment -> {
             String postId = dataFetchingEnvironment.getArgument("id");
-            postDao.incrementViewCount(postId);
-            return postDao.getPostById(postId);
+            int columns = Selections.columns(Columns.POSTS, dataFetchingEnvironment.getSelectionSet(), "*");
+            if (counterAggregator.isEnabled()) {
+                counterAggregator.increment(Counter.VIEWS, postId,
+                        dataFetchingEnvironment.getGraphQlContext().get(RequestMetrics.class));
+                Post post = postDao.getPostById(postId, columns);
+                if (post != null && post.getViews() != null) {
+                    post.setViews(post.getViews() + (int) counterAggregator.pending(Counter.VIEWS, postId));
+                }
+                return post;
+            }
+            if (!ShardedCounters.isEnabled()
+                    && Selections.selectsOnly(dataFetchingEnvironment.getSelectionSet(), "id", "views")) {
+                Integer views = postDao.incrementAndGetViews(postId);
+                return views == null ? null : Post.builder().id(postId).views(views).build();
+            }
+            return postDao.incrementViewCount(postId, columns);
         };
     }
 
+    public BatchLoader<ProjectedId, Post> getPostsDataLoader() {
+        return list -> CompletableFuture.supplyAsync(() -> getPostsForMultipleIds(list), executor);
+    }
+
+    public BatchLoader<String, Integer> getCommentCountsDataLoader() {
+        return list -> CompletableFuture.supplyAsync(() -> getCommentCountsForMultipleIds(list), executor);
+    }
+
+    private List<Integer> getCommentCountsForMultipleIds(List<String> postIds) {
+        try {
+            Map<String, Integer> countsById = postDao.getCommentCounts(postIds);
+            return postIds.stream()
+                    .map(id -> countsById.getOrDefault(id, 0))
+                    .collect(Collectors.toList());
+        } catch (SQLException se) {
+            throw new RuntimeException("Error geting comment counts from DB ", se);
+        }
+    }
+
+    /**
+     * Loads the posts of all keys with one query that selects the union of their columns.
+     */
+    private List<Post> getPostsForMultipleIds(List<ProjectedId> keys) {
+        try {
+            List<String> postIds = keys.stream().map(ProjectedId::getId).collect(Collectors.toList());
+            int columns = keys.stream().mapToInt(ProjectedId::getColumns).reduce(0, (a, b) -> a | b);
+            Map<String, Post> postsById = postDao.getPostsByIds(postIds, columns).stream()
+                    .collect(Collectors.toMap(Post::getId, Function.identity()));
+            return postIds.stream()
+                    .map(postsById::get)
+                    .collect(Collectors.toList());
+        } catch (SQLException se) {
+            throw new RuntimeException("Error geting posts from DB ", se);
+        }
+    }
 
 }
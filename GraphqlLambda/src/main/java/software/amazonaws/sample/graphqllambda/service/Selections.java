@@ -0,0 +1,42 @@
+//  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//  SPDX-License-Identifier: MIT-0
+
+package software.amazonaws.sample.graphqllambda.service;
+
+import graphql.schema.DataFetchingFieldSelectionSet;
+import graphql.schema.SelectedField;
+import software.amazonaws.sample.graphqllambda.dao.Columns;
+
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Maps the fields selected by a query to the {@link Columns} mask the DAOs project to.
+ */
+final class Selections {
+
+    private Selections() {
+    }
+
+    /**
+     * @param fieldGlob selection set glob of the row fields, "*" for a field that returns the rows themselves or
+     *                  "edges/node/*" for a connection
+     */
+    static int columns(Columns columns, DataFetchingFieldSelectionSet selectionSet, String fieldGlob) {
+        return columns.mask(selectionSet.getFields(fieldGlob).stream()
+                .map(SelectedField::getName)
+                .collect(Collectors.toSet()));
+    }
+
+    /**
+     * Returns true when the selection set has no other fields than the given ones, not counting introspection
+     * fields.
+     */
+    static boolean selectsOnly(DataFetchingFieldSelectionSet selectionSet, String... fields) {
+        Set<String> allowedFields = Set.of(fields);
+        return selectionSet.getImmediateFields().stream()
+                .map(SelectedField::getName)
+                .allMatch(name -> allowedFields.contains(name) || name.startsWith("__"));
+    }
+
+}
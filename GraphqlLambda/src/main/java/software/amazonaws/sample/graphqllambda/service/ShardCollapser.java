@@ -0,0 +1,56 @@
+//  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//  SPDX-License-Identifier: MIT-0
+
+package software.amazonaws.sample.graphqllambda.service;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import software.amazonaws.sample.graphqllambda.dao.CommentDao;
+import software.amazonaws.sample.graphqllambda.dao.PostDao;
+import software.amazonaws.sample.graphqllambda.dao.ShardedCounters;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+
+/**
+ * Collapses the counter slots of cold comments and posts when {@link ShardedCounters} are enabled. Runs after a
+ * request at most every COUNTER_SHARD_COLLAPSE_INTERVAL_MS (default 60000) and collapses up to
+ * COUNTER_SHARD_COLLAPSE_LIMIT (default 100) entities per table that were not incremented for
+ * COUNTER_SHARD_IDLE_SECONDS (default 300).
+ */
+public class ShardCollapser {
+
+    private static final Logger logger = LogManager.getLogger(ShardCollapser.class);
+
+    private final CommentDao commentDao;
+    private final PostDao postDao;
+    private final long intervalMillis = getIntEnv("COUNTER_SHARD_COLLAPSE_INTERVAL_MS", 60000);
+    private final int limit = getIntEnv("COUNTER_SHARD_COLLAPSE_LIMIT", 100);
+    private final int idleSeconds = getIntEnv("COUNTER_SHARD_IDLE_SECONDS", 300);
+    private long lastCollapse = System.currentTimeMillis();
+
+    public ShardCollapser(DataSource dataSource) {
+        this.commentDao = new CommentDao(dataSource);
+        this.postDao = new PostDao(dataSource);
+    }
+
+    public synchronized void collapseIfDue() {
+        if (!ShardedCounters.isEnabled() || System.currentTimeMillis() - lastCollapse < intervalMillis) {
+            return;
+        }
+        lastCollapse = System.currentTimeMillis();
+        try {
+            int comments = commentDao.collapseVoteShards(idleSeconds, limit);
+            int posts = postDao.collapseViewShards(idleSeconds, limit);
+            logger.info("Collapsed the counter slots of " + comments + " comments and " + posts + " posts");
+        } catch (SQLException e) {
+            logger.error("Error collapsing counter slots ", e);
+        }
+    }
+
+    private static int getIntEnv(String name, int defaultValue) {
+        String value = System.getenv(name);
+        return value == null || value.isEmpty() ? defaultValue : Integer.parseInt(value);
+    }
+
+}
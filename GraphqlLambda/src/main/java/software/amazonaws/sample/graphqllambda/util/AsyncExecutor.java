@@ -0,0 +1,111 @@
+//  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//  SPDX-License-Identifier: MIT-0
+
+package software.amazonaws.sample.graphqllambda.util;
+
+import graphql.schema.DataFetcher;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executor for blocking DAO calls made by root query fields and batch loaders. Each task borrows its own
+ * connection from the pool, so sibling root fields of one operation overlap their database round trips.
+ * <p>
+ * The mode is read from DATA_FETCHER_EXECUTOR:
+ * <ul>
+ *     <li>virtual (default) - a virtual thread per task, on a Java 21 or later runtime. Falls back to direct on
+ *     older runtimes.</li>
+ *     <li>platform - a fixed pool of DB_POOL_MAX_SIZE daemon threads.</li>
+ *     <li>direct - runs every call on the calling thread, one after another.</li>
+ * </ul>
+ */
+public class AsyncExecutor {
+
+    private static final Logger logger = LogManager.getLogger(AsyncExecutor.class);
+    static final String VIRTUAL = "virtual";
+    static final String PLATFORM = "platform";
+    static final String DIRECT = "direct";
+
+    private final Executor executor;
+    private final boolean async;
+
+    private AsyncExecutor(Executor executor, boolean async) {
+        this.executor = executor;
+        this.async = async;
+    }
+
+    public static AsyncExecutor create() {
+        String mode = System.getenv().getOrDefault("DATA_FETCHER_EXECUTOR", VIRTUAL);
+        switch (mode) {
+            case VIRTUAL:
+                ExecutorService virtualThreadExecutor = newVirtualThreadExecutor();
+                if (virtualThreadExecutor != null) {
+                    logger.info("Running data fetchers on virtual threads");
+                    return new AsyncExecutor(virtualThreadExecutor, true);
+                }
+                logger.info("Virtual threads are not available on Java " + Runtime.version().feature()
+                        + ", running data fetchers on the calling thread");
+                return direct();
+            case PLATFORM:
+                int threads = Integer.parseInt(System.getenv().getOrDefault("DB_POOL_MAX_SIZE", "4"));
+                logger.info("Running data fetchers on " + threads + " platform threads");
+                AtomicInteger threadNumber = new AtomicInteger();
+                return new AsyncExecutor(Executors.newFixedThreadPool(threads, runnable -> {
+                    Thread thread = new Thread(runnable, "data-fetcher-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }), true);
+            case DIRECT:
+                return direct();
+            default:
+                throw new IllegalArgumentException("Unknown DATA_FETCHER_EXECUTOR " + mode);
+        }
+    }
+
+    public static AsyncExecutor direct() {
+        return new AsyncExecutor(Runnable::run, false);
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    public boolean isAsync() {
+        return async;
+    }
+
+    /**
+     * Runs the data fetcher on the executor. In direct mode the data fetcher is returned unchanged.
+     */
+    public <T> DataFetcher<?> async(DataFetcher<T> dataFetcher) {
+        if (!async) {
+            return dataFetcher;
+        }
+        return dataFetchingEnvironment -> CompletableFuture.supplyAsync(() -> {
+            try {
+                return dataFetcher.get(dataFetchingEnvironment);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor is looked up reflectively because the code is compiled for Java 11.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,121 @@
+//  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//  SPDX-License-Identifier: MIT-0
+
+package software.amazonaws.sample.graphqllambda.util;
+
+import lombok.EqualsAndHashCode;
+import lombok.RequiredArgsConstructor;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.rds.RdsUtilities;
+import software.amazon.awssdk.services.rds.model.GenerateAuthenticationTokenRequest;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches RDS IAM authentication tokens per user, endpoint, region and port for the lifetime of the container.
+ * <p>
+ * Tokens are valid for 15 minutes. A token is refreshed on a background thread once it is older than
+ * {@link #REFRESH_AFTER_MILLIS}, so reconnects keep using the cached token instead of signing on the request path.
+ * Signing only happens on the calling thread for the first connection or after the cached token has expired,
+ * for example when the container was frozen for longer than the token lifetime.
+ */
+public class AuthTokenProvider {
+
+    private static final Logger logger = LogManager.getLogger(AuthTokenProvider.class);
+    private static final long TOKEN_LIFETIME_MILLIS = TimeUnit.MINUTES.toMillis(15);
+    private static final long REFRESH_AFTER_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private static final long EXPIRY_SAFETY_MARGIN_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final AuthTokenProvider INSTANCE = new AuthTokenProvider();
+
+    private final DefaultCredentialsProvider credentialsProvider = DefaultCredentialsProvider.create();
+    private final Map<String, RdsUtilities> utilitiesByRegion = new ConcurrentHashMap<>();
+    private final Map<TokenKey, CachedToken> tokens = new ConcurrentHashMap<>();
+    private final Set<TokenKey> refreshing = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "rds-auth-token-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public static AuthTokenProvider getInstance() {
+        return INSTANCE;
+    }
+
+    public String getToken(String username, String dbEndpoint, String region, Integer port) {
+        TokenKey key = new TokenKey(username, dbEndpoint, region, port);
+        long now = System.currentTimeMillis();
+        CachedToken cachedToken = tokens.get(key);
+
+        if (cachedToken != null && now < cachedToken.issuedAt + TOKEN_LIFETIME_MILLIS - EXPIRY_SAFETY_MARGIN_MILLIS) {
+            if (now >= cachedToken.issuedAt + REFRESH_AFTER_MILLIS) {
+                refreshAsync(key, 0);
+            }
+            return cachedToken.token;
+        }
+        return refresh(key).token;
+    }
+
+    public void invalidateAll() {
+        tokens.clear();
+    }
+
+    private CachedToken refresh(TokenKey key) {
+        CachedToken cachedToken = new CachedToken(sign(key), System.currentTimeMillis());
+        tokens.put(key, cachedToken);
+        refreshAsync(key, REFRESH_AFTER_MILLIS);
+        return cachedToken;
+    }
+
+    private void refreshAsync(TokenKey key, long delayMillis) {
+        if (!refreshing.add(key)) {
+            return;
+        }
+        refresher.schedule(() -> {
+            refreshing.remove(key);
+            try {
+                refresh(key);
+            } catch (RuntimeException e) {
+                logger.error("Error refreshing RDS auth token ", e);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private String sign(TokenKey key) {
+        RdsUtilities utilities = utilitiesByRegion.computeIfAbsent(key.region, region -> RdsUtilities.builder()
+                .credentialsProvider(credentialsProvider)
+                .region(Region.of(region))
+                .build());
+
+        GenerateAuthenticationTokenRequest authTokenRequest = GenerateAuthenticationTokenRequest.builder()
+                .username(key.username)
+                .hostname(key.dbEndpoint)
+                .port(key.port)
+                .build();
+
+        return utilities.generateAuthenticationToken(authTokenRequest);
+    }
+
+    @EqualsAndHashCode
+    @RequiredArgsConstructor
+    private static class TokenKey {
+        private final String username;
+        private final String dbEndpoint;
+        private final String region;
+        private final Integer port;
+    }
+
+    @RequiredArgsConstructor
+    private static class CachedToken {
+        private final String token;
+        private final long issuedAt;
+    }
+
+}
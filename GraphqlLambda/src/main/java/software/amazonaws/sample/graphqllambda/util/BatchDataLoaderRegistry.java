@@ -0,0 +1,48 @@
+//  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//  SPDX-License-Identifier: MIT-0
+
+package software.amazonaws.sample.graphqllambda.util;
+
+import org.dataloader.DataLoaderRegistry;
+
+/**
+ * DataLoaderRegistry shared by the operations of a batched HTTP request. graphql-java asks every operation's
+ * registry to dispatch when a level of that operation waits on its DataLoaders. This registry holds the dispatch
+ * back until every running operation has asked for one, so the loads of all operations go to the database in the
+ * same batches. Operations that complete stop counting.
+ */
+class BatchDataLoaderRegistry extends DataLoaderRegistry {
+
+    private int running;
+    private int waiting;
+
+    BatchDataLoaderRegistry(int operations) {
+        this.running = operations;
+    }
+
+    @Override
+    public void dispatchAll() {
+        synchronized (this) {
+            waiting++;
+            if (waiting < running) {
+                return;
+            }
+            waiting = 0;
+        }
+        super.dispatchAll();
+    }
+
+    /**
+     * Called once per operation when its execution completes, dispatches when the remaining operations all wait.
+     */
+    void operationCompleted() {
+        synchronized (this) {
+            running--;
+            if (running == 0 || waiting < running) {
+                return;
+            }
+            waiting = 0;
+        }
+        super.dispatchAll();
+    }
+}
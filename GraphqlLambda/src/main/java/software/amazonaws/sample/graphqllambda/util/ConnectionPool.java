@@ -0,0 +1,618 @@
+//  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//  SPDX-License-Identifier: MIT-0
+
+package software.amazonaws.sample.graphqllambda.util;
+
+import lombok.Builder;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A small JDBC connection pool for the Lambda container. DAOs borrow a connection per operation with
+ * try-with-resources; closing the borrowed connection returns it to the pool.
+ * <p>
+ * Connections that sat idle longer than the validation interval are validated on borrow, and idle connections above
+ * the minimum size are evicted after the idle timeout. Eviction runs on borrow and release rather than on a background
+ * thread because the Lambda execution environment is frozen between invocations.
+ * <p>
+ * Each pooled connection keeps an LRU cache of up to statementCacheSize prepared statements keyed by SQL text.
+ * Closing a cached statement clears its parameters and returns it to the cache, the physical statement is closed
+ * when it is evicted or when its connection is closed.
+ */
+public class ConnectionPool implements DataSource, AutoCloseable {
+
+    private static final Logger logger = LogManager.getLogger(ConnectionPool.class);
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    private final ConnectionFactory connectionFactory;
+    private final int minSize;
+    private final int maxSize;
+    private final long borrowTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final long validationIntervalMillis;
+    private final int statementCacheSize;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition connectionReturned = lock.newCondition();
+    private final Deque<PooledConnection> idleConnections = new ArrayDeque<>();
+    private int totalConnections;
+    private boolean closed;
+
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong statementCacheHits = new AtomicLong();
+    private final AtomicLong statementCacheMisses = new AtomicLong();
+
+    @FunctionalInterface
+    public interface ConnectionFactory {
+        Connection create() throws SQLException;
+    }
+
+    @Builder
+    public ConnectionPool(ConnectionFactory connectionFactory,
+                          int minSize,
+                          int maxSize,
+                          long borrowTimeoutMillis,
+                          long idleTimeoutMillis,
+                          long validationIntervalMillis,
+                          int statementCacheSize) {
+        if (maxSize < 1 || minSize < 0 || minSize > maxSize) {
+            throw new IllegalArgumentException("Invalid pool size min=" + minSize + " max=" + maxSize);
+        }
+        this.connectionFactory = connectionFactory;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.validationIntervalMillis = validationIntervalMillis;
+        this.statementCacheSize = statementCacheSize;
+        fill();
+    }
+
+    /**
+     * Opens connections until the pool holds at least the minimum number of connections.
+     */
+    public void fill() {
+        lock.lock();
+        try {
+            closed = false;
+        } finally {
+            lock.unlock();
+        }
+        List<PooledConnection> created = new ArrayList<>();
+        while (reserveIfBelow(minSize)) {
+            try {
+                created.add(new PooledConnection(connectionFactory.create()));
+            } catch (SQLException e) {
+                unreserve();
+                logger.error("Cannot open pooled DB connection ", e);
+                break;
+            }
+        }
+        lock.lock();
+        try {
+            created.forEach(idleConnections::push);
+            connectionReturned.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(borrowTimeoutMillis);
+        borrowCount.incrementAndGet();
+
+        while (true) {
+            PooledConnection pooledConnection = null;
+            boolean createNew = false;
+            List<PooledConnection> evicted = List.of();
+
+            lock.lock();
+            try {
+                if (closed) {
+                    throw new SQLException("Connection pool is closed");
+                }
+                evicted = evictIdleConnections();
+                while (idleConnections.isEmpty() && totalConnections >= maxSize) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        timeoutCount.incrementAndGet();
+                        recordWait(start);
+                        throw new SQLTransientConnectionException("Timed out after " + borrowTimeoutMillis
+                                + " ms waiting for a DB connection, active=" + getActiveCount());
+                    }
+                    connectionReturned.awaitNanos(remaining);
+                }
+                if (!idleConnections.isEmpty()) {
+                    pooledConnection = idleConnections.pop();
+                } else {
+                    totalConnections++;
+                    createNew = true;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a DB connection", e);
+            } finally {
+                lock.unlock();
+                // Closing sends a quit packet, which must not block other borrowers waiting for the lock
+                evicted.forEach(PooledConnection::closePhysical);
+            }
+
+            if (createNew) {
+                try {
+                    pooledConnection = new PooledConnection(connectionFactory.create());
+                } catch (SQLException | RuntimeException e) {
+                    unreserve();
+                    throw e;
+                }
+            } else if (!isUsable(pooledConnection)) {
+                discard(pooledConnection);
+                continue;
+            }
+
+            recordWait(start);
+            return pooledConnection.borrow();
+        }
+    }
+
+    @Override
+    public void close() {
+        List<PooledConnection> toClose;
+        lock.lock();
+        try {
+            closed = true;
+            toClose = new ArrayList<>(idleConnections);
+            idleConnections.clear();
+            totalConnections -= toClose.size();
+        } finally {
+            lock.unlock();
+        }
+        toClose.forEach(PooledConnection::closePhysical);
+        logger.info("Closed " + toClose.size() + " idle DB connections");
+    }
+
+    public int getActiveCount() {
+        lock.lock();
+        try {
+            return totalConnections - idleConnections.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getIdleCount() {
+        lock.lock();
+        try {
+            return idleConnections.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    public long getTotalWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get());
+    }
+
+    public long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+    }
+
+    public long getStatementCacheHits() {
+        return statementCacheHits.get();
+    }
+
+    public long getStatementCacheMisses() {
+        return statementCacheMisses.get();
+    }
+
+    public void logMetrics() {
+        logger.debug("Connection pool :: active={} idle={} borrows={} waitMs={} maxWaitMs={} timeouts={} "
+                        + "statementCacheHits={} statementCacheMisses={}",
+                getActiveCount(), getIdleCount(), getBorrowCount(), getTotalWaitMillis(), getMaxWaitMillis(),
+                getTimeoutCount(), getStatementCacheHits(), getStatementCacheMisses());
+    }
+
+    private boolean isUsable(PooledConnection pooledConnection) {
+        if (System.currentTimeMillis() - pooledConnection.lastUsed < validationIntervalMillis) {
+            return true;
+        }
+        try {
+            return pooledConnection.physical.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            logger.info("Pooled DB connection failed validation", e);
+            return false;
+        }
+    }
+
+    private void release(PooledConnection pooledConnection) {
+        pooledConnection.releaseStatements();
+        try {
+            if (!pooledConnection.physical.getAutoCommit()) {
+                pooledConnection.physical.rollback();
+                pooledConnection.physical.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            logger.info("Discarding DB connection that could not be reset", e);
+            discard(pooledConnection);
+            return;
+        }
+
+        lock.lock();
+        try {
+            if (closed) {
+                totalConnections--;
+            } else {
+                pooledConnection.lastUsed = System.currentTimeMillis();
+                idleConnections.push(pooledConnection);
+                connectionReturned.signal();
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        pooledConnection.closePhysical();
+    }
+
+    private void discard(PooledConnection pooledConnection) {
+        pooledConnection.closePhysical();
+        unreserve();
+    }
+
+    private boolean reserveIfBelow(int size) {
+        lock.lock();
+        try {
+            if (totalConnections < size) {
+                totalConnections++;
+                return true;
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void unreserve() {
+        lock.lock();
+        try {
+            totalConnections--;
+            connectionReturned.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes connections idle longer than the idle timeout from the pool, keeping the minimum size, and returns them
+     * for the caller to close after releasing the lock. Must be called holding the lock.
+     */
+    private List<PooledConnection> evictIdleConnections() {
+        List<PooledConnection> evicted = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        Iterator<PooledConnection> oldestFirst = idleConnections.descendingIterator();
+        while (oldestFirst.hasNext() && totalConnections > minSize) {
+            PooledConnection pooledConnection = oldestFirst.next();
+            if (now - pooledConnection.lastUsed < idleTimeoutMillis) {
+                break;
+            }
+            oldestFirst.remove();
+            totalConnections--;
+            evicted.add(pooledConnection);
+        }
+        return evicted;
+    }
+
+    private void recordWait(long start) {
+        long waited = System.nanoTime() - start;
+        totalWaitNanos.addAndGet(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Connections are created with IAM authentication");
+    }
+
+    @Override
+    public PrintWriter getLogWriter() {
+        return null;
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) {
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) {
+    }
+
+    @Override
+    public int getLoginTimeout() {
+        return 0;
+    }
+
+    @Override
+    public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("Not a wrapper for " + iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isInstance(this);
+    }
+
+    private class PooledConnection {
+        private final Connection physical;
+        private final Map<String, CachedStatement> statements;
+        private long lastUsed = System.currentTimeMillis();
+
+        PooledConnection(Connection physical) throws SQLException {
+            if (physical == null) {
+                throw new SQLException("Cannot open DB connection");
+            }
+            this.physical = physical;
+            this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                    if (size() > statementCacheSize) {
+                        eldest.getValue().evict();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        Connection borrow() {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, new BorrowedConnectionHandler(this));
+        }
+
+        /**
+         * Returns the cached statement for the SQL text, or an uncached one while the cached statement is in use.
+         */
+        PreparedStatement prepareStatement(String sql, Connection borrowedConnection) throws SQLException {
+            CachedStatement cachedStatement = statements.get(sql);
+            if (cachedStatement != null && !cachedStatement.inUse) {
+                statementCacheHits.incrementAndGet();
+                return cachedStatement.borrow(borrowedConnection);
+            }
+            statementCacheMisses.incrementAndGet();
+            PreparedStatement statement = physical.prepareStatement(sql);
+            if (cachedStatement != null) {
+                return statement;
+            }
+            cachedStatement = new CachedStatement(statement);
+            statements.put(sql, cachedStatement);
+            return cachedStatement.borrow(borrowedConnection);
+        }
+
+        /**
+         * Makes statements the borrower did not close available again. Their proxies are revoked, so the borrower
+         * cannot reach a physical statement that the next borrower of the connection uses.
+         */
+        void releaseStatements() {
+            statements.values().forEach(CachedStatement::revoke);
+        }
+
+        void closePhysical() {
+            statements.values().forEach(CachedStatement::evict);
+            statements.clear();
+            try {
+                physical.close();
+            } catch (SQLException e) {
+                logger.info("Error closing DB connection", e);
+            }
+        }
+    }
+
+    private static class CachedStatement {
+        private final PreparedStatement physical;
+        private BorrowedStatementHandler borrower;
+        private boolean inUse;
+        private boolean evicted;
+
+        CachedStatement(PreparedStatement physical) {
+            this.physical = physical;
+        }
+
+        PreparedStatement borrow(Connection borrowedConnection) {
+            inUse = true;
+            borrower = new BorrowedStatementHandler(this, borrowedConnection);
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, borrower);
+        }
+
+        /**
+         * Returns the statement to the cache when the borrower closes it.
+         */
+        void release(BorrowedStatementHandler handler) {
+            if (borrower == handler) {
+                release();
+            }
+        }
+
+        /**
+         * Closes the proxy of a borrower that did not close the statement and returns the statement to the cache.
+         */
+        void revoke() {
+            if (borrower != null) {
+                borrower.closed = true;
+            }
+            release();
+        }
+
+        private void release() {
+            borrower = null;
+            if (!inUse) {
+                return;
+            }
+            inUse = false;
+            if (evicted) {
+                closePhysical();
+                return;
+            }
+            try {
+                physical.clearParameters();
+            } catch (SQLException e) {
+                logger.info("Error resetting cached statement", e);
+                evicted = true;
+                closePhysical();
+            }
+        }
+
+        void evict() {
+            evicted = true;
+            if (!inUse) {
+                closePhysical();
+            }
+        }
+
+        private void closePhysical() {
+            try {
+                physical.close();
+            } catch (SQLException e) {
+                logger.info("Error closing cached statement", e);
+            }
+        }
+    }
+
+    /**
+     * Delegates to the physical connection until the borrower calls close, which returns the connection to the pool.
+     */
+    private class BorrowedConnectionHandler implements InvocationHandler {
+        private final PooledConnection pooledConnection;
+        private boolean returned;
+
+        BorrowedConnectionHandler(PooledConnection pooledConnection) {
+            this.pooledConnection = pooledConnection;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!returned) {
+                        returned = true;
+                        release(pooledConnection);
+                    }
+                    return null;
+                case "isClosed":
+                    return returned || pooledConnection.physical.isClosed();
+                case "prepareStatement":
+                    if (args.length == 1 && statementCacheSize > 0 && !returned) {
+                        return pooledConnection.prepareStatement((String) args[0], (Connection) proxy);
+                    }
+                    return invokePhysical(method, args);
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled " + pooledConnection.physical;
+                default:
+                    return invokePhysical(method, args);
+            }
+        }
+
+        private Object invokePhysical(Method method, Object[] args) throws Throwable {
+            if (returned) {
+                throw new SQLException("Connection has been returned to the pool");
+            }
+            try {
+                return method.invoke(pooledConnection.physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    /**
+     * Delegates to the cached statement until the borrower calls close, which returns the statement to the cache.
+     */
+    private static class BorrowedStatementHandler implements InvocationHandler {
+        private final CachedStatement cachedStatement;
+        private final Connection borrowedConnection;
+        // Also set by CachedStatement.revoke when the connection is returned with the statement still open
+        private volatile boolean closed;
+
+        BorrowedStatementHandler(CachedStatement cachedStatement, Connection borrowedConnection) {
+            this.cachedStatement = cachedStatement;
+            this.borrowedConnection = borrowedConnection;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        cachedStatement.release(this);
+                    }
+                    return null;
+                case "isClosed":
+                    return closed || cachedStatement.physical.isClosed();
+                case "getConnection":
+                    return borrowedConnection;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Cached " + cachedStatement.physical;
+                default:
+                    if (closed) {
+                        throw new SQLException("Statement has been returned to the cache");
+                    }
+                    try {
+                        return method.invoke(cachedStatement.physical, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+            }
+        }
+    }
+
+}
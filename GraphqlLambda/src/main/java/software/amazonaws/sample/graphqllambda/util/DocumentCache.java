@@ -0,0 +1,129 @@
+//  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//  SPDX-License-Identifier: MIT-0
+
+package software.amazonaws.sample.graphqllambda.util;
+
+import graphql.ExecutionInput;
+import graphql.execution.preparsed.PreparsedDocumentEntry;
+import graphql.execution.preparsed.PreparsedDocumentProvider;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Keeps parsed and validated GraphQL documents for the lifetime of the Lambda container so that
+ * warm invocations of the same operation skip graphql-java's parse and validate steps.
+ * The cache is a bounded LRU keyed by query text and operation name.
+ */
+public class DocumentCache implements PreparsedDocumentProvider {
+
+    private static final Logger logger = LogManager.getLogger(DocumentCache.class);
+    private static final int DEFAULT_MAX_ENTRIES = 100;
+
+    private final int maxEntries;
+    private final Map<String, PreparsedDocumentEntry> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public DocumentCache() {
+        this(getMaxEntriesFromEnv());
+    }
+
+    public DocumentCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparsedDocumentEntry> eldest) {
+                if (size() > DocumentCache.this.maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Still abstract in graphql-java 19, graphql-java itself only calls {@link #getDocumentAsync}.
+     */
+    @Deprecated
+    @Override
+    public PreparsedDocumentEntry getDocument(ExecutionInput executionInput,
+                                              Function<ExecutionInput, PreparsedDocumentEntry> parseAndValidateFunction) {
+        return getDocumentAsync(executionInput, parseAndValidateFunction).join();
+    }
+
+    @Override
+    public CompletableFuture<PreparsedDocumentEntry> getDocumentAsync(ExecutionInput executionInput,
+                                                                      Function<ExecutionInput, PreparsedDocumentEntry> parseAndValidateFunction) {
+        return CompletableFuture.completedFuture(cachedDocument(executionInput, parseAndValidateFunction));
+    }
+
+    private PreparsedDocumentEntry cachedDocument(ExecutionInput executionInput,
+                                                  Function<ExecutionInput, PreparsedDocumentEntry> parseAndValidateFunction) {
+        if (maxEntries <= 0) {
+            misses.incrementAndGet();
+            return parseAndValidateFunction.apply(executionInput);
+        }
+
+        String key = cacheKey(executionInput);
+        PreparsedDocumentEntry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry != null) {
+            hits.incrementAndGet();
+            return entry;
+        }
+
+        misses.incrementAndGet();
+        entry = parseAndValidateFunction.apply(executionInput);
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+        return entry;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public void logStats() {
+        logger.debug("Document cache :: size={} hits={} misses={} evictions={}",
+                size(), getHits(), getMisses(), getEvictions());
+    }
+
+    private static String cacheKey(ExecutionInput executionInput) {
+        String operationName = executionInput.getOperationName();
+        return (operationName == null ? "" : operationName) + "\n" + executionInput.getQuery();
+    }
+
+    private static int getMaxEntriesFromEnv() {
+        String maxEntries = System.getenv("DOCUMENT_CACHE_SIZE");
+        if (maxEntries == null || maxEntries.isEmpty()) {
+            return DEFAULT_MAX_ENTRIES;
+        }
+        return Integer.parseInt(maxEntries);
+    }
+
+}
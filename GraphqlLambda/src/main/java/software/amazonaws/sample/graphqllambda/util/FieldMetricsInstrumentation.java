@@ -0,0 +1,36 @@
+//  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//  SPDX-License-Identifier: MIT-0
+
+package software.amazonaws.sample.graphqllambda.util;
+
+import graphql.execution.instrumentation.InstrumentationContext;
+import graphql.execution.instrumentation.InstrumentationState;
+import graphql.execution.instrumentation.SimpleInstrumentation;
+import graphql.execution.instrumentation.SimpleInstrumentationContext;
+import graphql.execution.instrumentation.parameters.InstrumentationFieldFetchParameters;
+import graphql.schema.DataFetchingEnvironment;
+import graphql.schema.GraphQLObjectType;
+
+/**
+ * Records the latency of every non trivial data fetcher into the {@link RequestMetrics} found in the GraphQL
+ * context. For fetchers that return a CompletableFuture, such as DataLoader backed fields, the latency covers the
+ * time until the future completes. Property fetchers are skipped.
+ */
+public class FieldMetricsInstrumentation extends SimpleInstrumentation {
+
+    @Override
+    public InstrumentationContext<Object> beginFieldFetch(InstrumentationFieldFetchParameters parameters,
+                                                          InstrumentationState state) {
+        DataFetchingEnvironment environment = parameters.getEnvironment();
+        RequestMetrics requestMetrics = environment.getGraphQlContext().get(RequestMetrics.class);
+        if (requestMetrics == null || parameters.isTrivialDataFetcher()) {
+            return SimpleInstrumentationContext.noOp();
+        }
+
+        String field = ((GraphQLObjectType) environment.getParentType()).getName() + "." + environment.getField().getName();
+        long start = System.nanoTime();
+        return SimpleInstrumentationContext.whenCompleted((result, throwable) ->
+                requestMetrics.recordFieldLatency(field, (System.nanoTime() - start) / 1_000_000.0));
+    }
+
+}
@@ -0,0 +1,22 @@
+//  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//  SPDX-License-Identifier: MIT-0
+
+package software.amazonaws.sample.graphqllambda.util;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.Map;
+
+/**
+ * One operation of a batched HTTP request, with the persisted query already resolved.
+ */
+@Data
+@AllArgsConstructor
+public class GraphQLOperation {
+
+    String query;
+    String operationName;
+    Map<String, Object> variables;
+
+}
@@ -6,51 +6,146 @@ package software.amazonaws.sample.graphqllambda.util;
 import com.google.common.base.Charsets;
 import com.google.common.io.Resources;
 import graphql.ExecutionInput;
+import graphql.ExecutionResult;
+import graphql.ExecutionResultImpl;
+import graphql.GraphqlErrorBuilder;
 import graphql.GraphQL;
+import graphql.execution.instrumentation.ChainedInstrumentation;
+import graphql.schema.DataFetcher;
+import graphql.schema.FieldCoordinates;
+import graphql.schema.GraphQLCodeRegistry;
 import graphql.schema.GraphQLSchema;
 import graphql.schema.idl.*;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.dataloader.DataLoaderFactory;
+import org.dataloader.DataLoaderOptions;
 import org.dataloader.DataLoaderRegistry;
+import software.amazonaws.sample.graphqllambda.dao.CommentDao;
+import software.amazonaws.sample.graphqllambda.dao.InListQuery;
 import software.amazonaws.sample.graphqllambda.service.CommentsDataService;
+import software.amazonaws.sample.graphqllambda.service.CounterAggregator;
 import software.amazonaws.sample.graphqllambda.service.PostDataService;
+import software.amazonaws.sample.graphqllambda.service.ShardCollapser;
 
+import javax.sql.DataSource;
 import java.net.URL;
-import java.sql.Connection;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class GraphQLUtil {
 
     private static final Logger logger = LogManager.getLogger(GraphQLUtil.class);
 
     static String SCHEMA_FILE_NAME = "schema.graphqls";
+    // Fields that query the database weigh more, list fields multiply the cost of their selection. Connection
+    // fields are multiplied by their first argument instead, so their edges count once.
+    static Map<String, Integer> FIELD_WEIGHTS = Map.ofEntries(
+            Map.entry("Query.getPost", 5),
+            Map.entry("Query.getPostsByAuthor", 10),
+            Map.entry("Query.getCommentsOnPost", 10),
+            Map.entry("Query.getCommentsByAuthor", 20),
+            Map.entry("Query.getNumberOfCommentsOnPost", 5),
+            Map.entry("Query.postsByAuthor", 10),
+            Map.entry("Query.commentsByAuthor", 20),
+            Map.entry("Query.commentsOnPost", 10),
+            Map.entry("Post.comments", 20),
+            Map.entry("Post.commentsConnection", 20),
+            Map.entry("Comment.post", 5));
+    static Map<String, Integer> LIST_SIZES = Map.of(
+            "Query.getPostsByAuthor", 10,
+            "Query.getCommentsOnPost", 20,
+            "Query.getCommentsByAuthor", 20,
+            "Post.comments", 20,
+            "PostConnection.edges", 1,
+            "CommentConnection.edges", 1);
 
     private GraphQL graphQL;
     private JsonConverter jsonConverter;
-    private Connection connection;
+    private DataSource dataSource;
     private PostDataService postDataService;
     private CommentsDataService commentsDataService;
+    private DocumentCache documentCache;
+    private AsyncExecutor asyncExecutor;
+    private boolean sqlLookahead;
+    private CounterAggregator counterAggregator;
+    private ShardCollapser shardCollapser;
+    private ResultWriter resultWriter;
 
-    public GraphQLUtil(JsonConverter jsonConverter, Connection connection) {
-        this.connection = connection;
+    public GraphQLUtil(JsonConverter jsonConverter, DataSource dataSource) {
+        this.dataSource = dataSource;
         this.jsonConverter = jsonConverter;
-        this.postDataService = new PostDataService(this.connection);
-        this.commentsDataService = new CommentsDataService(this.connection);
-        this.graphQL = GraphQL.newGraphQL(buildSchema()).build();
+        this.asyncExecutor = AsyncExecutor.create();
+        this.sqlLookahead = Boolean.parseBoolean(System.getenv("SQL_LOOKAHEAD"));
+        this.counterAggregator = CounterAggregator.create(this.dataSource);
+        this.shardCollapser = new ShardCollapser(this.dataSource);
+        this.postDataService = new PostDataService(this.dataSource, asyncExecutor.getExecutor(), counterAggregator);
+        this.commentsDataService = new CommentsDataService(this.dataSource, asyncExecutor.getExecutor(),
+                counterAggregator);
+        this.documentCache = new DocumentCache();
+        this.resultWriter = new ResultWriter(jsonConverter);
+        this.graphQL = GraphQL.newGraphQL(buildSchema())
+                .preparsedDocumentProvider(documentCache)
+                .instrumentation(new ChainedInstrumentation(
+                        new QueryCostInstrumentation(FIELD_WEIGHTS, LIST_SIZES),
+                        new ListTruncationInstrumentation(),
+                        new FieldMetricsInstrumentation()))
+                .build();
     }
 
     public GraphQL getGraphQL() {
         return this.graphQL;
     }
 
+    public DocumentCache getDocumentCache() {
+        return this.documentCache;
+    }
+
+    public ResultWriter getResultWriter() {
+        return this.resultWriter;
+    }
+
+    /**
+     * Uses the schema class generated at build time by {@link SchemaCodeGenerator} so the SDL is not parsed at cold
+     * start. Falls back to parsing {@link #SCHEMA_FILE_NAME} when the generated class is not on the classpath.
+     */
     private GraphQLSchema buildSchema() {
+        RuntimeWiring runtimeWiring = buildWiring();
+        Class<?> generatedSchema;
+        try {
+            generatedSchema = Class.forName(SchemaCodeGenerator.GENERATED_CLASS_NAME);
+        } catch (ClassNotFoundException e) {
+            logger.warn(SchemaCodeGenerator.GENERATED_CLASS_NAME + " not found, parsing " + SCHEMA_FILE_NAME);
+            return parseSchema(runtimeWiring);
+        }
+        try {
+            return (GraphQLSchema) generatedSchema.getMethod("build", GraphQLCodeRegistry.class)
+                    .invoke(null, buildCodeRegistry(runtimeWiring));
+        } catch (ReflectiveOperationException e) {
+            logger.error("Error while building generated GraphQL Schema ", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    private GraphQLCodeRegistry buildCodeRegistry(RuntimeWiring runtimeWiring) {
+        GraphQLCodeRegistry.Builder codeRegistry = GraphQLCodeRegistry.newCodeRegistry();
+        for (Map.Entry<String, Map<String, DataFetcher>> type : runtimeWiring.getDataFetchers().entrySet()) {
+            for (Map.Entry<String, DataFetcher> field : type.getValue().entrySet()) {
+                codeRegistry.dataFetcher(FieldCoordinates.coordinates(type.getKey(), field.getKey()), field.getValue());
+            }
+        }
+        return codeRegistry.build();
+    }
+
+    private GraphQLSchema parseSchema(RuntimeWiring runtimeWiring) {
         try {
             URL url = Resources.getResource(SCHEMA_FILE_NAME);
             String sdl = Resources.toString(url, Charsets.UTF_8);
             TypeDefinitionRegistry typeRegistry = new SchemaParser().parse(sdl);
-            RuntimeWiring runtimeWiring = buildWiring();
             SchemaGenerator schemaGenerator = new SchemaGenerator();
             return schemaGenerator.makeExecutableSchema(typeRegistry, runtimeWiring);
         } catch (Exception e) {
@@ -60,21 +155,49 @@ public class GraphQLUtil {
 
     }
 
+    /**
+     * Root query fields run on the {@link AsyncExecutor} so that independent fields overlap their DAO calls.
+     * Mutation fields stay synchronous because graphql-java executes them serially anyway. Fields backed by a
+     * DataLoader are not wrapped, their batch loaders already run on the executor.
+     * <p>
+     * With SQL_LOOKAHEAD=true, getPost and getPostsByAuthor look at their selection set before they run and load
+     * the selected comments of the posts in the same join query instead of a second DataLoader round trip.
+     * Selections without comments use the normal fetchers.
+     */
     private RuntimeWiring buildWiring() {
         logger.info("POST DATA SERVICE ... " + postDataService);
+        // getPost stays on the calling thread, without comments it returns a DataLoader future
+        DataFetcher<?> postByIdFetcher = sqlLookahead
+                ? postDataService.getPostWithCommentsByIdFetcher()
+                : postDataService.getPostByIdFetcher();
+        DataFetcher<?> postByAuthorFetcher = sqlLookahead
+                ? postDataService.getPostWithCommentsByAuthorFetcher()
+                : postDataService.getPostByAuthorFetcher();
         return RuntimeWiring.newRuntimeWiring()
                 .type(TypeRuntimeWiring.newTypeWiring("Query")
-                        .dataFetcher("getPost", postDataService.getPostByIdFetcher()))
+                        .dataFetcher("getPost", postByIdFetcher))
                 .type(TypeRuntimeWiring.newTypeWiring("Post")
                         .dataFetcher("comments", commentsDataService.getCommentByPostFetcher()))
+                .type(TypeRuntimeWiring.newTypeWiring("Post")
+                        .dataFetcher("commentsConnection", commentsDataService.getCommentsPageByPostFetcher()))
+                .type(TypeRuntimeWiring.newTypeWiring("Post")
+                        .dataFetcher("commentCount", postDataService.getCommentCountFetcher()))
+                .type(TypeRuntimeWiring.newTypeWiring("Comment")
+                        .dataFetcher("post", postDataService.getCommentPostFetcher()))
                 .type(TypeRuntimeWiring.newTypeWiring("Query")
-                        .dataFetcher("getPostsByAuthor", postDataService.getPostByAuthorFetcher()))
+                        .dataFetcher("getPostsByAuthor", asyncExecutor.async(postByAuthorFetcher)))
                 .type(TypeRuntimeWiring.newTypeWiring("Query")
-                        .dataFetcher("getCommentsOnPost", commentsDataService.getCommentByPostIdFetcher()))
+                        .dataFetcher("getCommentsOnPost", asyncExecutor.async(commentsDataService.getCommentByPostIdFetcher())))
                 .type(TypeRuntimeWiring.newTypeWiring("Query")
                         .dataFetcher("getNumberOfCommentsOnPost", commentsDataService.getCommentsCountFetcher()))
                 .type(TypeRuntimeWiring.newTypeWiring("Query")
-                        .dataFetcher("getCommentsByAuthor", commentsDataService.getCommentByAuthorFetcher()))
+                        .dataFetcher("getCommentsByAuthor", asyncExecutor.async(commentsDataService.getCommentByAuthorFetcher())))
+                .type(TypeRuntimeWiring.newTypeWiring("Query")
+                        .dataFetcher("postsByAuthor", asyncExecutor.async(postDataService.getPostsPageByAuthorFetcher())))
+                .type(TypeRuntimeWiring.newTypeWiring("Query")
+                        .dataFetcher("commentsByAuthor", asyncExecutor.async(commentsDataService.getCommentsPageByAuthorFetcher())))
+                .type(TypeRuntimeWiring.newTypeWiring("Query")
+                        .dataFetcher("commentsOnPost", commentsDataService.getCommentsPageByPostIdFetcher()))
                 .type(TypeRuntimeWiring.newTypeWiring("Mutation")
                         .dataFetcher("createPost", postDataService.createPostFetcher()))
                 .type(TypeRuntimeWiring.newTypeWiring("Mutation")
@@ -88,21 +211,94 @@ public class GraphQLUtil {
                 .build();
     }
 
-    public String processGraphQlRequest(String query, String operationName, String variablesJson) {
+    /**
+     * Executes one operation. The metrics of the operation are recorded into requestMetrics, which the caller
+     * emits once the response is written.
+     */
+    public String processGraphQlRequest(String query, String operationName, String variablesJson,
+                                        RequestMetrics requestMetrics) {
 
         DataLoaderRegistry registry = new DataLoaderRegistry();
-        registry.register("comments", DataLoaderFactory.newDataLoader(commentsDataService.getCommentsDataLoader()));
+        registerDataLoaders(registry, requestMetrics);
 
         Map<String, Object> variableMap = convertVariablesJson(variablesJson);
-        ExecutionInput executionInput = ExecutionInput.newExecutionInput()
+        ExecutionInput executionInput = newExecutionInput(query, operationName, variableMap, registry, requestMetrics);
+
+        ExecutionResult executionResult = graphQL.execute(executionInput);
+        afterExecution(requestMetrics);
+        return resultWriter.toJson(executionResult);
+    }
+
+    /**
+     * Executes the operations of a batched HTTP request against one shared {@link BatchDataLoaderRegistry}, so the
+     * DataLoader loads of all operations reach the database in the same batches. The results are returned in the
+     * order of the operations. An operation that fails returns its own errors and does not fail the others.
+     * The metrics of all operations are recorded into requestMetrics, which the caller emits.
+     */
+    public List<ExecutionResult> processGraphQlBatch(List<GraphQLOperation> operations, RequestMetrics requestMetrics) {
+
+        BatchDataLoaderRegistry registry = new BatchDataLoaderRegistry(operations.size());
+        registerDataLoaders(registry, requestMetrics);
+
+        List<CompletableFuture<ExecutionResult>> results = new ArrayList<>(operations.size());
+        for (GraphQLOperation operation : operations) {
+            CompletableFuture<ExecutionResult> result;
+            try {
+                result = graphQL.executeAsync(newExecutionInput(operation.getQuery(), operation.getOperationName(),
+                        operation.getVariables() == null ? Collections.emptyMap() : operation.getVariables(),
+                        registry, requestMetrics));
+            } catch (RuntimeException e) {
+                result = CompletableFuture.failedFuture(e);
+            }
+            result.whenComplete((executionResult, e) -> registry.operationCompleted());
+            results.add(result);
+        }
+
+        List<ExecutionResult> responses = new ArrayList<>(results.size());
+        for (CompletableFuture<ExecutionResult> result : results) {
+            try {
+                responses.add(result.join());
+            } catch (CompletionException e) {
+                logger.error("Error while executing batched operation ", e.getCause());
+                responses.add(ExecutionResultImpl.newExecutionResult()
+                        .addError(GraphqlErrorBuilder.newError().message(String.valueOf(e.getCause().getMessage())).build())
+                        .build());
+            }
+        }
+        afterExecution(requestMetrics);
+        return responses;
+    }
+
+    // Batches match the IN list chunk size, and the union size for comment pages, so each dispatch is at most one
+    // query per loader
+    private void registerDataLoaders(DataLoaderRegistry registry, RequestMetrics requestMetrics) {
+        DataLoaderOptions options = DataLoaderOptions.newOptions().setMaxBatchSize(InListQuery.MAX_SIZE);
+        DataLoaderOptions commentPagesOptions = DataLoaderOptions.newOptions()
+                .setMaxBatchSize(CommentDao.MAX_UNION_PARTS);
+        registry.register("commentPages", DataLoaderFactory.newDataLoader(
+                requestMetrics.recordBatches("commentPages", commentsDataService.getCommentPagesDataLoader()),
+                commentPagesOptions));
+        registry.register("posts", DataLoaderFactory.newDataLoader(
+                requestMetrics.recordBatches("posts", postDataService.getPostsDataLoader()), options));
+        registry.register("commentCounts", DataLoaderFactory.newDataLoader(
+                requestMetrics.recordBatches("commentCounts", postDataService.getCommentCountsDataLoader()), options));
+    }
+
+    private ExecutionInput newExecutionInput(String query, String operationName, Map<String, Object> variables,
+                                             DataLoaderRegistry registry, RequestMetrics requestMetrics) {
+        return ExecutionInput.newExecutionInput()
                 .query(query)
                 .operationName(operationName)
                 .dataLoaderRegistry(registry)
-                .variables(variableMap)
+                .graphQLContext(Map.of(RequestMetrics.class, requestMetrics))
+                .variables(variables)
                 .build();
+    }
 
-        Object returnObj = graphQL.execute(executionInput).toSpecification();
-        return jsonConverter.toJson(returnObj);
+    private void afterExecution(RequestMetrics requestMetrics) {
+        counterAggregator.flushOnReturn(requestMetrics);
+        shardCollapser.collapseIfDue();
+        documentCache.logStats();
     }
 
     private Map<String, Object> convertVariablesJson(String jsonMap) {
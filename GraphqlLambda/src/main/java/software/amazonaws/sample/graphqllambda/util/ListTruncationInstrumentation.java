@@ -0,0 +1,78 @@
+//  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//  SPDX-License-Identifier: MIT-0
+
+package software.amazonaws.sample.graphqllambda.util;
+
+import graphql.ExecutionResult;
+import graphql.ExecutionResultImpl;
+import graphql.execution.instrumentation.InstrumentationState;
+import graphql.execution.instrumentation.SimpleInstrumentation;
+import graphql.execution.instrumentation.parameters.InstrumentationCreateStateParameters;
+import graphql.execution.instrumentation.parameters.InstrumentationExecutionParameters;
+import graphql.schema.DataFetchingEnvironment;
+import software.amazonaws.sample.graphqllambda.dao.Pagination;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Tells clients which legacy list fields were cut at {@link Pagination#MAX_LIST_SIZE}. The DAOs read
+ * {@link Pagination#LIST_FETCH_SIZE} rows for these fields, the data fetchers pass the rows through
+ * {@link #truncate(DataFetchingEnvironment, List)}, and the path of every cut list is returned in the
+ * "truncatedLists" response extension together with the limit. The connection fields page through the rest.
+ */
+public class ListTruncationInstrumentation extends SimpleInstrumentation {
+
+    /**
+     * Returns the first {@link Pagination#MAX_LIST_SIZE} rows and records the field when there were more.
+     */
+    public static <T> List<T> truncate(DataFetchingEnvironment environment, List<T> rows) {
+        if (rows.size() <= Pagination.MAX_LIST_SIZE) {
+            return rows;
+        }
+        TruncationState state = environment.getGraphQlContext().get(TruncationState.class);
+        if (state != null) {
+            state.paths.add(environment.getExecutionStepInfo().getPath().toList());
+        }
+        return new ArrayList<>(rows.subList(0, Pagination.MAX_LIST_SIZE));
+    }
+
+    @Override
+    public InstrumentationState createState(InstrumentationCreateStateParameters parameters) {
+        // Data fetchers reach the state through the context of their operation
+        TruncationState state = new TruncationState();
+        parameters.getExecutionInput().getGraphQLContext().put(TruncationState.class, state);
+        return state;
+    }
+
+    @Override
+    public CompletableFuture<ExecutionResult> instrumentExecutionResult(ExecutionResult executionResult,
+                                                                        InstrumentationExecutionParameters parameters,
+                                                                        InstrumentationState state) {
+        TruncationState truncationState = (TruncationState) state;
+        if (truncationState == null || truncationState.paths.isEmpty()) {
+            return CompletableFuture.completedFuture(executionResult);
+        }
+        List<Map<String, Object>> truncatedLists = new ArrayList<>();
+        for (List<Object> path : truncationState.paths) {
+            Map<String, Object> truncatedList = new LinkedHashMap<>();
+            truncatedList.put("path", path);
+            truncatedList.put("limit", Pagination.MAX_LIST_SIZE);
+            truncatedLists.add(truncatedList);
+        }
+        return CompletableFuture.completedFuture(ExecutionResultImpl.newExecutionResult()
+                .from(executionResult)
+                .addExtension("truncatedLists", truncatedLists)
+                .build());
+    }
+
+    private static class TruncationState implements InstrumentationState {
+        // Fetchers of one operation can run on several executor threads
+        private final ConcurrentLinkedQueue<List<Object>> paths = new ConcurrentLinkedQueue<>();
+    }
+
+}
@@ -0,0 +1,60 @@
+//  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//  SPDX-License-Identifier: MIT-0
+
+package software.amazonaws.sample.graphqllambda.util;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import graphql.ExecutionInput;
+import graphql.GraphQLError;
+import graphql.ParseAndValidate;
+import graphql.schema.GraphQLSchema;
+import graphql.schema.idl.SchemaParser;
+import graphql.schema.idl.UnExecutableSchemaGenerator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Build time check of the persisted query manifest packaged from src/main/resources, see
+ * {@link PersistedQueryRegistry}. Runs in the process-classes phase after {@link SchemaCodeGenerator} and fails the
+ * build when an operation id is not the sha256 of its body or a body does not parse and validate against the SDL, so
+ * an allowlisted operation cannot break at runtime after a schema change.
+ * <p>
+ * Usage: PersistedQueryManifestValidator &lt;manifest resource&gt; &lt;sdl resource&gt;
+ */
+public class PersistedQueryManifestValidator {
+
+    private final GraphQLSchema schema;
+
+    public PersistedQueryManifestValidator(String sdl) {
+        this.schema = UnExecutableSchemaGenerator.makeUnExecutableSchema(new SchemaParser().parse(sdl));
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            throw new IllegalArgumentException("Usage: PersistedQueryManifestValidator <manifest resource> <sdl resource>");
+        }
+        String sdl = Resources.toString(Resources.getResource(args[1]), Charsets.UTF_8);
+        Map<String, String> queries = PersistedQueryRegistry.loadManifest(new JsonConverter(), args[0]);
+        new PersistedQueryManifestValidator(sdl).validate(queries);
+    }
+
+    /**
+     * Fails if any of the queries, keyed by their sha256, is not valid against the schema.
+     */
+    public void validate(Map<String, String> queries) {
+        List<String> failures = new ArrayList<>();
+        queries.forEach((hash, query) -> {
+            List<GraphQLError> errors = ParseAndValidate.parseAndValidate(schema,
+                    ExecutionInput.newExecutionInput(query).build()).getErrors();
+            errors.forEach(error -> failures.add(hash + ": " + error.getMessage()));
+        });
+        if (!failures.isEmpty()) {
+            throw new IllegalStateException("Persisted query manifest does not match the schema:\n"
+                    + String.join("\n", failures));
+        }
+    }
+
+}
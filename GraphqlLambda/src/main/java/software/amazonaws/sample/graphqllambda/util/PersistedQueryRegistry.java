@@ -0,0 +1,167 @@
+//  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//  SPDX-License-Identifier: MIT-0
+
+package software.amazonaws.sample.graphqllambda.util;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Resources;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registry for Apollo style automatic persisted queries. Clients send only the sha256 hash of a query
+ * in extensions.persistedQuery and the query text is looked up here.
+ * <p>
+ * Operations listed in the manifest are packaged with the jar and loaded at cold start. The manifest is
+ * src/main/resources/{@value #DEFAULT_MANIFEST}, PERSISTED_QUERY_MANIFEST names another classpath resource and an
+ * empty value disables it. The build checks the manifest against the schema with
+ * {@link PersistedQueryManifestValidator}. When PERSISTED_QUERIES_ALLOWLIST_ONLY is true, only those operations can
+ * be executed and clients cannot register new ones.
+ */
+public class PersistedQueryRegistry {
+
+    private static final Logger logger = LogManager.getLogger(PersistedQueryRegistry.class);
+    private static final int DEFAULT_MAX_REGISTERED = 500;
+    static final String DEFAULT_MANIFEST = "persisted-queries.json";
+
+    public static final String PERSISTED_QUERY_NOT_FOUND = "PersistedQueryNotFound";
+    public static final String PERSISTED_QUERY_NOT_FOUND_CODE = "PERSISTED_QUERY_NOT_FOUND";
+    public static final String PERSISTED_QUERY_HASH_MISMATCH = "provided sha does not match query";
+    public static final String PERSISTED_QUERY_HASH_MISMATCH_CODE = "PERSISTED_QUERY_HASH_MISMATCH";
+    public static final String PERSISTED_QUERY_NOT_ALLOWED = "Only persisted queries are allowed";
+    public static final String PERSISTED_QUERY_NOT_ALLOWED_CODE = "PERSISTED_QUERY_NOT_ALLOWED";
+
+    private final Map<String, String> manifestQueries;
+    private final Map<String, String> registeredQueries;
+    private final boolean allowlistOnly;
+
+    public PersistedQueryRegistry(JsonConverter jsonConverter) {
+        this(jsonConverter,
+                System.getenv().getOrDefault("PERSISTED_QUERY_MANIFEST", DEFAULT_MANIFEST),
+                Boolean.parseBoolean(System.getenv("PERSISTED_QUERIES_ALLOWLIST_ONLY")),
+                DEFAULT_MAX_REGISTERED);
+    }
+
+    public PersistedQueryRegistry(JsonConverter jsonConverter, String manifestResource, boolean allowlistOnly, int maxRegistered) {
+        this.allowlistOnly = allowlistOnly;
+        this.manifestQueries = manifestResource == null || manifestResource.isEmpty()
+                ? Collections.emptyMap()
+                : loadManifest(jsonConverter, manifestResource);
+        this.registeredQueries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > maxRegistered;
+            }
+        };
+        if (allowlistOnly && manifestQueries.isEmpty()) {
+            logger.warn("Persisted query allowlist is enabled but no operations were loaded");
+        }
+    }
+
+    /**
+     * Resolves the query text for a request. A request carrying both the query and its hash registers the query,
+     * a request carrying only the hash is served from the registry.
+     */
+    public String resolve(String query, String sha256Hash) {
+        if (sha256Hash == null) {
+            if (allowlistOnly) {
+                throw new PersistedQueryException(PERSISTED_QUERY_NOT_ALLOWED, PERSISTED_QUERY_NOT_ALLOWED_CODE);
+            }
+            return query;
+        }
+
+        if (query == null || query.isEmpty()) {
+            String persistedQuery = lookup(sha256Hash);
+            if (persistedQuery == null) {
+                throw new PersistedQueryException(PERSISTED_QUERY_NOT_FOUND, PERSISTED_QUERY_NOT_FOUND_CODE);
+            }
+            return persistedQuery;
+        }
+
+        if (!sha256Hash.equalsIgnoreCase(sha256(query))) {
+            throw new PersistedQueryException(PERSISTED_QUERY_HASH_MISMATCH, PERSISTED_QUERY_HASH_MISMATCH_CODE);
+        }
+        if (allowlistOnly) {
+            if (!manifestQueries.containsKey(sha256Hash.toLowerCase())) {
+                throw new PersistedQueryException(PERSISTED_QUERY_NOT_ALLOWED, PERSISTED_QUERY_NOT_ALLOWED_CODE);
+            }
+            return query;
+        }
+        synchronized (registeredQueries) {
+            registeredQueries.put(sha256Hash.toLowerCase(), query);
+        }
+        return query;
+    }
+
+    private String lookup(String sha256Hash) {
+        String hash = sha256Hash.toLowerCase();
+        String query = manifestQueries.get(hash);
+        if (query != null || allowlistOnly) {
+            return query;
+        }
+        synchronized (registeredQueries) {
+            return registeredQueries.get(hash);
+        }
+    }
+
+    public int getManifestSize() {
+        return manifestQueries.size();
+    }
+
+    static String sha256(String query) {
+        return Hashing.sha256().hashString(query, Charsets.UTF_8).toString();
+    }
+
+    /**
+     * Loads an Apollo persisted query manifest, {"operations": [{"id": "...", "name": "...", "body": "..."}]}.
+     */
+    static Map<String, String> loadManifest(JsonConverter jsonConverter, String manifestResource) {
+        try {
+            URL url = Resources.getResource(manifestResource);
+            Map<String, Object> manifest = jsonConverter.fromJson(Resources.toString(url, Charsets.UTF_8), Map.class);
+            List<Map<String, Object>> operations = (List<Map<String, Object>>) manifest.get("operations");
+
+            Map<String, String> queries = new HashMap<>();
+            if (operations != null) {
+                for (Map<String, Object> operation : operations) {
+                    String body = (String) operation.get("body");
+                    String id = (String) operation.get("id");
+                    String hash = sha256(body);
+                    if (id != null && !id.equalsIgnoreCase(hash)) {
+                        throw new IllegalStateException("Persisted query manifest id does not match body for operation "
+                                + operation.get("name"));
+                    }
+                    queries.put(hash, body);
+                }
+            }
+            logger.info("Loaded " + queries.size() + " persisted queries from " + manifestResource);
+            return Collections.unmodifiableMap(queries);
+        } catch (IOException | IllegalArgumentException e) {
+            logger.error("Error while loading persisted query manifest ", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static class PersistedQueryException extends RuntimeException {
+        private final String code;
+
+        public PersistedQueryException(String message, String code) {
+            super(message);
+            this.code = code;
+        }
+
+        public String getCode() {
+            return code;
+        }
+    }
+
+}
@@ -0,0 +1,169 @@
+//  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//  SPDX-License-Identifier: MIT-0
+
+package software.amazonaws.sample.graphqllambda.util;
+
+import graphql.ExecutionResult;
+import graphql.ExecutionResultImpl;
+import graphql.analysis.QueryTraverser;
+import graphql.analysis.QueryVisitorFieldEnvironment;
+import graphql.analysis.QueryVisitorStub;
+import graphql.execution.AbortExecutionException;
+import graphql.execution.ExecutionContext;
+import graphql.execution.instrumentation.InstrumentationContext;
+import graphql.execution.instrumentation.InstrumentationState;
+import graphql.execution.instrumentation.SimpleInstrumentation;
+import graphql.execution.instrumentation.parameters.InstrumentationCreateStateParameters;
+import graphql.execution.instrumentation.parameters.InstrumentationExecuteOperationParameters;
+import graphql.execution.instrumentation.parameters.InstrumentationExecutionParameters;
+import graphql.schema.GraphQLList;
+import graphql.schema.GraphQLTypeUtil;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Computes the cost and depth of every operation before it executes and aborts operations that exceed the
+ * configured limits, so that a single request cannot fan out into unbounded DAO calls.
+ * <p>
+ * The cost of a field is its weight plus the cost of its selection set, multiplied by the expected list size
+ * when the field returns a list, or by its "first" argument when it has one. Weights and list sizes are keyed by
+ * "Type.field". The check runs when the
+ * operation starts executing rather than during validation, so it also applies to documents served from the
+ * {@link DocumentCache}. The computed cost is returned in the "cost" response extension.
+ */
+public class QueryCostInstrumentation extends SimpleInstrumentation {
+
+    private static final Logger logger = LogManager.getLogger(QueryCostInstrumentation.class);
+    private static final int DEFAULT_MAX_COST = 10000;
+    private static final int DEFAULT_MAX_DEPTH = 8;
+    private static final int DEFAULT_FIELD_WEIGHT = 1;
+    private static final int DEFAULT_LIST_SIZE = 10;
+
+    private final Map<String, Integer> fieldWeights;
+    private final Map<String, Integer> listSizes;
+    private final int maxCost;
+    private final int maxDepth;
+
+    public QueryCostInstrumentation(Map<String, Integer> fieldWeights, Map<String, Integer> listSizes) {
+        this(fieldWeights, listSizes, getIntEnv("QUERY_MAX_COST", DEFAULT_MAX_COST),
+                getIntEnv("QUERY_MAX_DEPTH", DEFAULT_MAX_DEPTH));
+    }
+
+    /**
+     * @param maxCost  maximum operation cost, 0 or less disables the limit
+     * @param maxDepth maximum operation depth, 0 or less disables the limit
+     */
+    public QueryCostInstrumentation(Map<String, Integer> fieldWeights, Map<String, Integer> listSizes,
+                                    int maxCost, int maxDepth) {
+        this.fieldWeights = fieldWeights;
+        this.listSizes = listSizes;
+        this.maxCost = maxCost;
+        this.maxDepth = maxDepth;
+    }
+
+    @Override
+    public InstrumentationState createState(InstrumentationCreateStateParameters parameters) {
+        return new CostState();
+    }
+
+    @Override
+    public InstrumentationContext<ExecutionResult> beginExecuteOperation(InstrumentationExecuteOperationParameters parameters,
+                                                                          InstrumentationState state) {
+        CostState costState = (CostState) state;
+        calculate(parameters.getExecutionContext(), costState);
+        logger.debug("Query cost " + costState.cost + ", depth " + costState.depth);
+
+        if (maxDepth > 0 && costState.depth > maxDepth) {
+            throw new AbortExecutionException("Query depth " + costState.depth + " exceeds the maximum depth of " + maxDepth);
+        }
+        if (maxCost > 0 && costState.cost > maxCost) {
+            throw new AbortExecutionException("Query cost " + costState.cost + " exceeds the maximum cost of " + maxCost);
+        }
+        return super.beginExecuteOperation(parameters, state);
+    }
+
+    @Override
+    public CompletableFuture<ExecutionResult> instrumentExecutionResult(ExecutionResult executionResult,
+                                                                        InstrumentationExecutionParameters parameters,
+                                                                        InstrumentationState state) {
+        CostState costState = (CostState) state;
+        if (costState == null || costState.cost < 0) {
+            return CompletableFuture.completedFuture(executionResult);
+        }
+        Map<String, Object> cost = new LinkedHashMap<>();
+        cost.put("requested", costState.cost);
+        cost.put("depth", costState.depth);
+        cost.put("maximumCost", maxCost);
+        cost.put("maximumDepth", maxDepth);
+        return CompletableFuture.completedFuture(ExecutionResultImpl.newExecutionResult()
+                .from(executionResult)
+                .addExtension("cost", cost)
+                .build());
+    }
+
+    private void calculate(ExecutionContext executionContext, CostState costState) {
+        QueryTraverser queryTraverser = QueryTraverser.newQueryTraverser()
+                .schema(executionContext.getGraphQLSchema())
+                .document(executionContext.getDocument())
+                .operationName(executionContext.getOperationDefinition().getName())
+                .coercedVariables(executionContext.getCoercedVariables())
+                .build();
+
+        // Post order visits children first, so the cost of a selection set is known when its parent is visited
+        Map<QueryVisitorFieldEnvironment, Integer> selectionCosts = new HashMap<>();
+        int[] depth = {0};
+        queryTraverser.visitPostOrder(new QueryVisitorStub() {
+            @Override
+            public void visitField(QueryVisitorFieldEnvironment env) {
+                if (env.isTypeNameIntrospectionField()) {
+                    return;
+                }
+                int cost = fieldCost(env, selectionCosts.getOrDefault(env, 0));
+                selectionCosts.merge(env.getParentEnvironment(), cost, Integer::sum);
+                depth[0] = Math.max(depth[0], depth(env));
+            }
+        });
+        costState.cost = selectionCosts.getOrDefault(null, 0);
+        costState.depth = depth[0];
+    }
+
+    private int fieldCost(QueryVisitorFieldEnvironment env, int selectionCost) {
+        String coordinates = env.getFieldsContainer().getName() + "." + env.getField().getName();
+        int weight = fieldWeights.getOrDefault(coordinates, DEFAULT_FIELD_WEIGHT);
+        Object first = env.getArguments().get("first");
+        if (first instanceof Integer) {
+            return weight + Math.max((Integer) first, 0) * selectionCost;
+        }
+        if (GraphQLTypeUtil.unwrapNonNull(env.getFieldDefinition().getType()) instanceof GraphQLList) {
+            return weight + listSizes.getOrDefault(coordinates, DEFAULT_LIST_SIZE) * selectionCost;
+        }
+        return weight + selectionCost;
+    }
+
+    private static int depth(QueryVisitorFieldEnvironment env) {
+        int depth = 0;
+        for (QueryVisitorFieldEnvironment current = env; current != null; current = current.getParentEnvironment()) {
+            depth++;
+        }
+        return depth;
+    }
+
+    private static int getIntEnv(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        return Integer.parseInt(value);
+    }
+
+    private static class CostState implements InstrumentationState {
+        private int cost = -1;
+        private int depth;
+    }
+
+}
@@ -0,0 +1,134 @@
+//  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//  SPDX-License-Identifier: MIT-0
+
+package software.amazonaws.sample.graphqllambda.util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.dataloader.BatchLoader;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Collects data fetcher latencies, DataLoader batch sizes, counter flushes and response sizes for one invocation and
+ * writes them as CloudWatch Embedded Metric Format (EMF) log lines. CloudWatch Logs extracts the metrics from the "EMF" logger output,
+ * so no call to the CloudWatch API is needed on the request path.
+ * <p>
+ * Latencies are emitted as arrays of values, which CloudWatch aggregates into a distribution per field. EMF accepts
+ * at most {@link #MAX_VALUES} values per metric, further values are only counted.
+ */
+public class RequestMetrics {
+
+    private static final Logger emfLogger = LogManager.getLogger("EMF");
+    private static final String NAMESPACE = System.getenv().getOrDefault("METRICS_NAMESPACE", "GraphqlLambda");
+    static final int MAX_VALUES = 100;
+
+    private final Map<String, Samples> fieldLatencies = new ConcurrentHashMap<>();
+    private final Map<String, Samples> batchSizes = new ConcurrentHashMap<>();
+    private final Map<String, Samples> flushLatencies = new ConcurrentHashMap<>();
+    private final Map<String, Samples> flushSizes = new ConcurrentHashMap<>();
+    private final Map<String, Samples> responseRawBytes = new ConcurrentHashMap<>();
+    private final Map<String, Samples> responseEncodedBytes = new ConcurrentHashMap<>();
+
+    public void recordFieldLatency(String field, double millis) {
+        fieldLatencies.computeIfAbsent(field, key -> new Samples()).add(millis);
+    }
+
+    public void recordBatch(String dataLoader, int size) {
+        batchSizes.computeIfAbsent(dataLoader, key -> new Samples()).add(size);
+    }
+
+    /**
+     * Records a flush of aggregated counters, its latency and the number of updated rows of the table.
+     */
+    public void recordCounterFlush(String table, double millis, int rows) {
+        flushLatencies.computeIfAbsent(table, key -> new Samples()).add(millis);
+        flushSizes.computeIfAbsent(table, key -> new Samples()).add(rows);
+    }
+
+    /**
+     * Records the size of a response body before and after its content encoding, identity when not compressed.
+     */
+    public void recordResponseSize(String encoding, int rawBytes, int encodedBytes) {
+        responseRawBytes.computeIfAbsent(encoding, key -> new Samples()).add(rawBytes);
+        responseEncodedBytes.computeIfAbsent(encoding, key -> new Samples()).add(encodedBytes);
+    }
+
+    /**
+     * Wraps a batch loader so that every dispatch to it records its batch size.
+     */
+    public <K, V> BatchLoader<K, V> recordBatches(String dataLoader, BatchLoader<K, V> batchLoader) {
+        return keys -> {
+            recordBatch(dataLoader, keys.size());
+            return batchLoader.load(keys);
+        };
+    }
+
+    public void emit(JsonConverter jsonConverter) {
+        long timestamp = System.currentTimeMillis();
+        fieldLatencies.forEach((field, samples) -> emfLogger.info(jsonConverter.toJson(
+                emfEntry(timestamp, "Field", field, "FieldLatency", "Milliseconds", "FieldCalls", samples))));
+        batchSizes.forEach((dataLoader, samples) -> emfLogger.info(jsonConverter.toJson(
+                emfEntry(timestamp, "DataLoader", dataLoader, "BatchSize", "Count", "DispatchCount", samples))));
+        flushLatencies.forEach((table, samples) -> emfLogger.info(jsonConverter.toJson(
+                emfEntry(timestamp, "Table", table, "CounterFlushLatency", "Milliseconds", "CounterFlushCount", samples))));
+        flushSizes.forEach((table, samples) -> emfLogger.info(jsonConverter.toJson(
+                emfEntry(timestamp, "Table", table, "CounterFlushSize", "Count", null, samples))));
+        responseRawBytes.forEach((encoding, samples) -> emfLogger.info(jsonConverter.toJson(
+                emfEntry(timestamp, "Encoding", encoding, "ResponseRawBytes", "Bytes", "ResponseCount", samples))));
+        responseEncodedBytes.forEach((encoding, samples) -> emfLogger.info(jsonConverter.toJson(
+                emfEntry(timestamp, "Encoding", encoding, "ResponseEncodedBytes", "Bytes", null, samples))));
+    }
+
+    /**
+     * @param countMetric name of the metric that counts the samples, or null to emit the values only
+     */
+    private static Map<String, Object> emfEntry(long timestamp, String dimension, String dimensionValue,
+                                                String valuesMetric, String valuesUnit, String countMetric,
+                                                Samples samples) {
+        List<Map<String, String>> metrics = countMetric == null
+                ? List.of(Map.of("Name", valuesMetric, "Unit", valuesUnit))
+                : List.of(Map.of("Name", valuesMetric, "Unit", valuesUnit), Map.of("Name", countMetric, "Unit", "Count"));
+        Map<String, Object> metricDirective = Map.of(
+                "Namespace", NAMESPACE,
+                "Dimensions", List.of(List.of(dimension)),
+                "Metrics", metrics);
+
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("_aws", Map.of(
+                "Timestamp", timestamp,
+                "CloudWatchMetrics", List.of(metricDirective)));
+        entry.put(dimension, dimensionValue);
+        entry.put(valuesMetric, samples.values());
+        if (countMetric != null) {
+            entry.put(countMetric, samples.count.get());
+        }
+        return entry;
+    }
+
+    private static class Samples {
+        private final List<Double> values = new ArrayList<>();
+        private final AtomicInteger count = new AtomicInteger();
+
+        void add(double value) {
+            count.incrementAndGet();
+            synchronized (values) {
+                if (values.size() < MAX_VALUES) {
+                    values.add(value);
+                }
+            }
+        }
+
+        List<Double> values() {
+            synchronized (values) {
+                return new ArrayList<>(values);
+            }
+        }
+    }
+
+}
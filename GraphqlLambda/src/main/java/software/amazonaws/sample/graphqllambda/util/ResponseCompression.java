@@ -0,0 +1,157 @@
+//  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//  SPDX-License-Identifier: MIT-0
+
+package software.amazonaws.sample.graphqllambda.util;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses response bodies with gzip or deflate, chosen from the request's Accept-Encoding header. Bodies smaller
+ * than RESPONSE_COMPRESSION_MIN_BYTES are sent as is, the compressed body is base64 encoded because API Gateway
+ * passes binary Lambda responses as base64. RESPONSE_COMPRESSION_LEVEL sets the zlib level from 1 (fastest) to
+ * 9 (smallest), a negative minimum size disables compression.
+ */
+public class ResponseCompression {
+
+    private static final Logger logger = LogManager.getLogger(ResponseCompression.class);
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+    public static final String IDENTITY = "identity";
+    private static final int DEFAULT_MIN_BYTES = 1024;
+    private static final int DEFAULT_LEVEL = 6;
+
+    private final int minBytes;
+    private final int level;
+
+    public ResponseCompression() {
+        this(getIntEnv("RESPONSE_COMPRESSION_MIN_BYTES", DEFAULT_MIN_BYTES),
+                getIntEnv("RESPONSE_COMPRESSION_LEVEL", DEFAULT_LEVEL));
+    }
+
+    public ResponseCompression(int minBytes, int level) {
+        this.minBytes = minBytes;
+        this.level = level;
+    }
+
+    /**
+     * Returns the body with the encoding the client accepts, or the raw body when the client accepts neither
+     * encoding, the body is below the threshold or compression does not make it smaller.
+     */
+    public EncodedBody encode(String body, String acceptEncoding) {
+        byte[] raw = body.getBytes(StandardCharsets.UTF_8);
+        String encoding = negotiate(acceptEncoding);
+        if (minBytes < 0 || raw.length < minBytes || encoding.equals(IDENTITY)) {
+            return new EncodedBody(IDENTITY, body, false, raw.length, raw.length);
+        }
+        byte[] compressed;
+        try {
+            compressed = compress(raw, encoding);
+        } catch (IOException e) {
+            logger.error("Cannot " + encoding + " compress the response ", e);
+            return new EncodedBody(IDENTITY, body, false, raw.length, raw.length);
+        }
+        if (compressed.length >= raw.length) {
+            return new EncodedBody(IDENTITY, body, false, raw.length, raw.length);
+        }
+        return new EncodedBody(encoding, Base64.getEncoder().encodeToString(compressed), true, raw.length,
+                compressed.length);
+    }
+
+    /**
+     * Picks gzip over deflate when both have the same quality, codings with q=0 are not acceptable. "*" only
+     * applies to the codings the header does not name, so "gzip;q=0, *" still excludes gzip.
+     */
+    static String negotiate(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isEmpty()) {
+            return IDENTITY;
+        }
+        Double gzipQuality = null;
+        Double deflateQuality = null;
+        double wildcardQuality = 0;
+        for (String coding : acceptEncoding.toLowerCase(Locale.ROOT).split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim();
+            double quality = 1;
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(parameter.substring(2));
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            if (name.equals(GZIP)) {
+                gzipQuality = quality;
+            } else if (name.equals(DEFLATE)) {
+                deflateQuality = quality;
+            } else if (name.equals("*")) {
+                wildcardQuality = quality;
+            }
+        }
+        double gzip = gzipQuality == null ? wildcardQuality : gzipQuality;
+        double deflate = deflateQuality == null ? wildcardQuality : deflateQuality;
+        if (gzip > 0 && gzip >= deflate) {
+            return GZIP;
+        }
+        return deflate > 0 ? DEFLATE : IDENTITY;
+    }
+
+    private byte[] compress(byte[] raw, String encoding) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(raw.length / 4 + 64);
+        if (encoding.equals(GZIP)) {
+            try (OutputStream out = new GzipStream(bytes, level)) {
+                out.write(raw);
+            }
+            return bytes.toByteArray();
+        }
+        // deflate as content coding is the zlib format, not a raw deflate stream
+        Deflater deflater = new Deflater(level);
+        try (OutputStream out = new DeflaterOutputStream(bytes, deflater)) {
+            out.write(raw);
+        } finally {
+            deflater.end();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static int getIntEnv(String name, int defaultValue) {
+        String value = System.getenv(name);
+        return value == null || value.isEmpty() ? defaultValue : Integer.parseInt(value);
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class EncodedBody {
+        String encoding;
+        String body;
+        boolean base64Encoded;
+        int rawBytes;
+        int encodedBytes;
+    }
+
+    /**
+     * GZIPOutputStream with a configurable compression level.
+     */
+    private static class GzipStream extends GZIPOutputStream {
+        GzipStream(OutputStream out, int level) throws IOException {
+            super(out);
+            def.setLevel(level);
+        }
+    }
+
+}
@@ -0,0 +1,173 @@
+//  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//  SPDX-License-Identifier: MIT-0
+
+package software.amazonaws.sample.graphqllambda.util;
+
+import graphql.ExecutionResult;
+import graphql.GraphQLError;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes execution results as JSON straight from the result data into a StringBuilder that is reused by the
+ * invocations of the Lambda container, instead of copying the result into the map of
+ * {@link ExecutionResult#toSpecification()} and serializing that map with Gson. The output is the same as Gson's:
+ * null map values are left out and HTML characters are escaped. Values of other types are written with
+ * {@link JsonConverter}.
+ */
+public class ResultWriter {
+
+    // A buffer that grew for one very large response is dropped instead of being kept for the container lifetime
+    private static final int MAX_RETAINED_CAPACITY = 1 << 20;
+    private static final String[] ESCAPES = new String[128];
+
+    static {
+        for (int c = 0; c < 0x20; c++) {
+            ESCAPES[c] = String.format("\\u%04x", c);
+        }
+        ESCAPES['"'] = "\\\"";
+        ESCAPES['\\'] = "\\\\";
+        ESCAPES['\t'] = "\\t";
+        ESCAPES['\b'] = "\\b";
+        ESCAPES['\n'] = "\\n";
+        ESCAPES['\r'] = "\\r";
+        ESCAPES['\f'] = "\\f";
+        ESCAPES['<'] = "\\u003c";
+        ESCAPES['>'] = "\\u003e";
+        ESCAPES['&'] = "\\u0026";
+        ESCAPES['='] = "\\u003d";
+        ESCAPES['\''] = "\\u0027";
+    }
+
+    private final JsonConverter jsonConverter;
+    private final ThreadLocal<StringBuilder> buffers = ThreadLocal.withInitial(() -> new StringBuilder(8192));
+
+    public ResultWriter(JsonConverter jsonConverter) {
+        this.jsonConverter = jsonConverter;
+    }
+
+    public String toJson(Object value) {
+        StringBuilder out = buffers.get();
+        try {
+            writeValue(out, value);
+            return out.toString();
+        } finally {
+            if (out.capacity() > MAX_RETAINED_CAPACITY) {
+                buffers.remove();
+            } else {
+                out.setLength(0);
+            }
+        }
+    }
+
+    /**
+     * Same members and order as {@link ExecutionResult#toSpecification()}.
+     */
+    private void writeResult(StringBuilder out, ExecutionResult result) {
+        out.append('{');
+        boolean first = true;
+        if (!result.getErrors().isEmpty()) {
+            out.append("\"errors\":[");
+            for (int i = 0; i < result.getErrors().size(); i++) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                writeValue(out, result.getErrors().get(i).toSpecification());
+            }
+            out.append(']');
+            first = false;
+        }
+        if (result.isDataPresent() && result.getData() != null) {
+            if (!first) {
+                out.append(',');
+            }
+            out.append("\"data\":");
+            writeValue(out, result.getData());
+            first = false;
+        }
+        if (result.getExtensions() != null) {
+            if (!first) {
+                out.append(',');
+            }
+            out.append("\"extensions\":");
+            writeValue(out, result.getExtensions());
+        }
+        out.append('}');
+    }
+
+    private void writeValue(StringBuilder out, Object value) {
+        if (value == null) {
+            out.append("null");
+        } else if (value instanceof String) {
+            writeString(out, (String) value);
+        } else if (value instanceof Map) {
+            writeMap(out, (Map<?, ?>) value);
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            out.append('[');
+            for (int i = 0; i < list.size(); i++) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                writeValue(out, list.get(i));
+            }
+            out.append(']');
+        } else if (value instanceof Number || value instanceof Boolean) {
+            out.append(value);
+        } else if (value instanceof ExecutionResult) {
+            writeResult(out, (ExecutionResult) value);
+        } else if (value instanceof GraphQLError) {
+            writeValue(out, ((GraphQLError) value).toSpecification());
+        } else if (value instanceof Object[]) {
+            writeValue(out, Arrays.asList((Object[]) value));
+        } else {
+            out.append(jsonConverter.toJson(value));
+        }
+    }
+
+    private void writeMap(StringBuilder out, Map<?, ?> map) {
+        out.append('{');
+        boolean first = true;
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            if (entry.getValue() == null) {
+                continue;
+            }
+            if (!first) {
+                out.append(',');
+            }
+            writeString(out, String.valueOf(entry.getKey()));
+            out.append(':');
+            writeValue(out, entry.getValue());
+            first = false;
+        }
+        out.append('}');
+    }
+
+    private static void writeString(StringBuilder out, String value) {
+        out.append('"');
+        int last = 0;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            String escape;
+            if (c < 128) {
+                escape = ESCAPES[c];
+            } else if (c == '\u2028') {
+                escape = "\\u2028";
+            } else if (c == '\u2029') {
+                escape = "\\u2029";
+            } else {
+                continue;
+            }
+            if (escape == null) {
+                continue;
+            }
+            out.append(value, last, i).append(escape);
+            last = i + 1;
+        }
+        out.append(value, last, length).append('"');
+    }
+
+}
@@ -0,0 +1,254 @@
+//  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//  SPDX-License-Identifier: MIT-0
+
+package software.amazonaws.sample.graphqllambda.util;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Resources;
+import graphql.language.*;
+import graphql.schema.GraphQLCodeRegistry;
+import graphql.schema.GraphQLSchema;
+import graphql.schema.idl.SchemaParser;
+import graphql.schema.idl.SchemaPrinter;
+import graphql.schema.idl.TypeDefinitionRegistry;
+import graphql.schema.idl.UnExecutableSchemaGenerator;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Build time generator for {@link #GENERATED_CLASS_NAME}, a class that builds the GraphQL schema programmatically
+ * so the Lambda does not parse the SDL at cold start. The SDL in schema.graphqls stays the source of truth.
+ * <p>
+ * Runs in the process-classes phase: generates the Java source, compiles it into the output directory and fails the
+ * build if the generated schema does not print the same as the schema built from the SDL.
+ * <p>
+ * Usage: SchemaCodeGenerator &lt;sdl resource&gt; &lt;generated sources dir&gt; &lt;classes dir&gt;
+ */
+public class SchemaCodeGenerator {
+
+    static final String GENERATED_PACKAGE = "software.amazonaws.sample.graphqllambda.util";
+    static final String GENERATED_SIMPLE_NAME = "GeneratedSchema";
+    static final String GENERATED_CLASS_NAME = GENERATED_PACKAGE + "." + GENERATED_SIMPLE_NAME;
+    private static final Set<String> BUILT_IN_SCALARS = Set.of("Int", "Float", "String", "Boolean", "ID");
+
+    private final TypeDefinitionRegistry typeRegistry;
+    private final String sdlHash;
+
+    public SchemaCodeGenerator(String sdl) {
+        this.typeRegistry = new SchemaParser().parse(sdl);
+        this.sdlHash = Hashing.sha256().hashString(sdl, Charsets.UTF_8).toString();
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 3) {
+            throw new IllegalArgumentException("Usage: SchemaCodeGenerator <sdl resource> <generated sources dir> <classes dir>");
+        }
+        String sdl = Resources.toString(Resources.getResource(args[0]), Charsets.UTF_8);
+        Path sourceDir = Paths.get(args[1]);
+        Path classesDir = Paths.get(args[2]);
+
+        SchemaCodeGenerator generator = new SchemaCodeGenerator(sdl);
+        Path sourceFile = sourceDir.resolve(GENERATED_PACKAGE.replace('.', File.separatorChar))
+                .resolve(GENERATED_SIMPLE_NAME + ".java");
+        Files.createDirectories(sourceFile.getParent());
+        Files.writeString(sourceFile, generator.generate());
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        int result = compiler.run(null, null, null,
+                "--release", "11",
+                "-classpath", System.getProperty("java.class.path"),
+                "-d", classesDir.toString(),
+                sourceFile.toString());
+        if (result != 0) {
+            throw new IllegalStateException("Cannot compile " + sourceFile);
+        }
+
+        try (URLClassLoader classLoader = new URLClassLoader(new URL[]{classesDir.toUri().toURL()},
+                SchemaCodeGenerator.class.getClassLoader())) {
+            Class<?> generatedClass = Class.forName(GENERATED_CLASS_NAME, true, classLoader);
+            GraphQLSchema generatedSchema = (GraphQLSchema) generatedClass
+                    .getMethod("build", GraphQLCodeRegistry.class)
+                    .invoke(null, GraphQLCodeRegistry.newCodeRegistry().build());
+            generator.verify(generatedSchema);
+        }
+    }
+
+    /**
+     * Fails if the generated schema has drifted from the SDL.
+     */
+    public void verify(GraphQLSchema generatedSchema) {
+        GraphQLSchema sdlSchema = UnExecutableSchemaGenerator.makeUnExecutableSchema(typeRegistry);
+        String expected = print(sdlSchema);
+        String actual = print(generatedSchema);
+        if (!expected.equals(actual)) {
+            throw new IllegalStateException("Generated GraphQL schema does not match the SDL.\nSDL:\n" + expected
+                    + "\nGenerated:\n" + actual);
+        }
+    }
+
+    static String print(GraphQLSchema schema) {
+        return new SchemaPrinter(SchemaPrinter.Options.defaultOptions()
+                .includeDirectives(false)
+                .includeScalarTypes(false)
+                .includeSchemaDefinition(false))
+                .print(schema);
+    }
+
+    public String generate() {
+        List<ObjectTypeDefinition> objectTypes = typeRegistry.types().values().stream()
+                .map(this::asObjectType)
+                .sorted(Comparator.comparing(ObjectTypeDefinition::getName))
+                .collect(Collectors.toList());
+
+        String queryType = operationTypeName("query", "Query");
+        String mutationType = operationTypeName("mutation", "Mutation");
+
+        StringBuilder java = new StringBuilder();
+        java.append("//  Generated by SchemaCodeGenerator from schema.graphqls. Do not edit.\n\n")
+                .append("package ").append(GENERATED_PACKAGE).append(";\n\n")
+                .append("import graphql.Scalars;\n")
+                .append("import graphql.schema.*;\n\n")
+                .append("public final class ").append(GENERATED_SIMPLE_NAME).append(" {\n\n")
+                .append("    public static final String SDL_SHA256 = \"").append(sdlHash).append("\";\n\n")
+                .append("    private ").append(GENERATED_SIMPLE_NAME).append("() {\n    }\n\n")
+                .append("    public static GraphQLSchema build(GraphQLCodeRegistry codeRegistry) {\n")
+                .append("        return GraphQLSchema.newSchema()\n");
+
+        for (ObjectTypeDefinition objectType : objectTypes) {
+            String name = objectType.getName();
+            if (name.equals(queryType)) {
+                java.append("                .query(").append(methodName(name)).append("())\n");
+            } else if (name.equals(mutationType)) {
+                java.append("                .mutation(").append(methodName(name)).append("())\n");
+            } else {
+                java.append("                .additionalType(").append(methodName(name)).append("())\n");
+            }
+        }
+        java.append("                .codeRegistry(codeRegistry)\n")
+                .append("                .build();\n")
+                .append("    }\n");
+
+        for (ObjectTypeDefinition objectType : objectTypes) {
+            generateObjectType(java, objectType);
+        }
+        java.append("\n}\n");
+        return java.toString();
+    }
+
+    private void generateObjectType(StringBuilder java, ObjectTypeDefinition objectType) {
+        if (!objectType.getImplements().isEmpty() || !objectType.getDirectives().isEmpty()) {
+            throw unsupported("interfaces or directives on type " + objectType.getName());
+        }
+        java.append("\n    private static GraphQLObjectType ").append(methodName(objectType.getName())).append("() {\n")
+                .append("        return GraphQLObjectType.newObject()\n")
+                .append("                .name(").append(literal(objectType.getName())).append(")\n");
+        appendDescription(java, objectType.getDescription(), "                ");
+
+        for (FieldDefinition field : objectType.getFieldDefinitions()) {
+            if (!field.getDirectives().isEmpty()) {
+                throw unsupported("directives on field " + objectType.getName() + "." + field.getName());
+            }
+            java.append("                .field(GraphQLFieldDefinition.newFieldDefinition()\n")
+                    .append("                        .name(").append(literal(field.getName())).append(")\n")
+                    .append("                        .type(").append(typeExpression(field.getType())).append(")\n");
+            appendDescription(java, field.getDescription(), "                        ");
+
+            for (InputValueDefinition argument : field.getInputValueDefinitions()) {
+                if (!argument.getDirectives().isEmpty()) {
+                    throw unsupported("directives on argument " + field.getName() + "." + argument.getName());
+                }
+                java.append("                        .argument(GraphQLArgument.newArgument()\n")
+                        .append("                                .name(").append(literal(argument.getName())).append(")\n")
+                        .append("                                .type(").append(typeExpression(argument.getType())).append(")");
+                if (argument.getDefaultValue() != null) {
+                    java.append("\n                                .defaultValueProgrammatic(")
+                            .append(valueExpression(argument.getDefaultValue())).append(")");
+                }
+                java.append(")\n");
+            }
+            java.append("                        .build())\n");
+        }
+        java.append("                .build();\n")
+                .append("    }\n");
+    }
+
+    private ObjectTypeDefinition asObjectType(TypeDefinition<?> typeDefinition) {
+        if (!(typeDefinition instanceof ObjectTypeDefinition)) {
+            throw unsupported(typeDefinition.getClass().getSimpleName() + " " + typeDefinition.getName());
+        }
+        if (!typeRegistry.objectTypeExtensions().isEmpty()) {
+            throw unsupported("type extensions");
+        }
+        return (ObjectTypeDefinition) typeDefinition;
+    }
+
+    private String operationTypeName(String operation, String defaultName) {
+        return typeRegistry.schemaDefinition()
+                .flatMap(schema -> schema.getOperationTypeDefinitions().stream()
+                        .filter(definition -> definition.getName().equals(operation))
+                        .map(definition -> definition.getTypeName().getName())
+                        .findFirst())
+                .orElse(defaultName);
+    }
+
+    private String typeExpression(Type<?> type) {
+        if (type instanceof NonNullType) {
+            return "GraphQLNonNull.nonNull(" + typeExpression(((NonNullType) type).getType()) + ")";
+        }
+        if (type instanceof ListType) {
+            return "GraphQLList.list(" + typeExpression(((ListType) type).getType()) + ")";
+        }
+        String name = ((TypeName) type).getName();
+        if (BUILT_IN_SCALARS.contains(name)) {
+            return "Scalars.GraphQL" + (name.equals("ID") ? "ID" : name);
+        }
+        if (!typeRegistry.getType(name).isPresent()) {
+            throw unsupported("unknown type " + name);
+        }
+        return "GraphQLTypeReference.typeRef(" + literal(name) + ")";
+    }
+
+    private String valueExpression(Value<?> value) {
+        if (value instanceof IntValue) {
+            return ((IntValue) value).getValue().toString();
+        }
+        if (value instanceof BooleanValue) {
+            return Boolean.toString(((BooleanValue) value).isValue());
+        }
+        if (value instanceof StringValue) {
+            return literal(((StringValue) value).getValue());
+        }
+        throw unsupported("default value " + value);
+    }
+
+    private static void appendDescription(StringBuilder java, Description description, String indent) {
+        if (description != null) {
+            java.append(indent).append(".description(").append(literal(description.getContent())).append(")\n");
+        }
+    }
+
+    private static String methodName(String typeName) {
+        return Character.toLowerCase(typeName.charAt(0)) + typeName.substring(1) + "Type";
+    }
+
+    private static String literal(String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+    }
+
+    private static UnsupportedOperationException unsupported(String what) {
+        return new UnsupportedOperationException("SchemaCodeGenerator does not support " + what);
+    }
+
+}
@@ -0,0 +1,211 @@
+//  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//  SPDX-License-Identifier: MIT-0
+
+package software.amazonaws.sample.graphqllambda.util;
+
+import graphql.ExecutionInput;
+import graphql.ExecutionResult;
+import graphql.GraphQL;
+import graphql.schema.DataFetcher;
+import graphql.schema.GraphQLSchema;
+import graphql.schema.idl.RuntimeWiring;
+import graphql.schema.idl.SchemaGenerator;
+import graphql.schema.idl.SchemaParser;
+import graphql.schema.idl.TypeRuntimeWiring;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.config.Property;
+import org.dataloader.BatchLoader;
+import org.dataloader.DataLoaderFactory;
+import org.dataloader.DataLoaderOptions;
+import org.dataloader.DataLoaderRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazonaws.sample.graphqllambda.dao.CommentDao;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs a query with {@link FieldMetricsInstrumentation} and a batched "commentPages" DataLoader, then parses the EMF
+ * lines that {@link RequestMetrics#emit} writes to the "EMF" logger.
+ */
+class RequestMetricsTest {
+
+    private static final String SDL = "type Query { posts: [Post] }\n"
+            + "type Post { id: ID\n comments: [Comment] }\n"
+            + "type Comment { id: ID }\n";
+    private static final int POSTS = 20;
+    private static final long LOADER_MILLIS = 20;
+
+    private final JsonConverter jsonConverter = new JsonConverter();
+    private final CapturingAppender appender = new CapturingAppender();
+
+    @BeforeEach
+    void captureEmf() {
+        appender.start();
+        LoggerContext context = (LoggerContext) LogManager.getContext(false);
+        context.getConfiguration().getLoggerConfig("EMF").addAppender(appender, Level.INFO, null);
+        context.updateLoggers();
+    }
+
+    @AfterEach
+    void releaseEmf() {
+        LoggerContext context = (LoggerContext) LogManager.getContext(false);
+        context.getConfiguration().getLoggerConfig("EMF").removeAppender(appender.getName());
+        context.updateLoggers();
+        appender.stop();
+    }
+
+    @Test
+    void emitsFieldLatenciesAndBatchSizes() {
+        RequestMetrics requestMetrics = new RequestMetrics();
+        ExecutionResult result = execute("{ posts { id comments { id } } }", requestMetrics);
+        assertTrue(result.getErrors().isEmpty(), result.getErrors().toString());
+
+        requestMetrics.emit(jsonConverter);
+
+        Map<String, Object> comments = entry("Field", "Post.comments");
+        assertMetricDirective(comments, "Field", List.of(
+                Map.of("Name", "FieldLatency", "Unit", "Milliseconds"),
+                Map.of("Name", "FieldCalls", "Unit", "Count")));
+        List<Double> latencies = values(comments, "FieldLatency");
+        assertEquals(POSTS, latencies.size());
+        // The comments future completes after its batch is loaded
+        latencies.forEach(latency -> assertTrue(latency >= LOADER_MILLIS, "latency " + latency));
+        assertEquals(POSTS, ((Number) comments.get("FieldCalls")).intValue());
+
+        Map<String, Object> posts = entry("Field", "Query.posts");
+        assertEquals(1, values(posts, "FieldLatency").size());
+        assertTrue(values(posts, "FieldLatency").get(0) >= 0);
+        assertEquals(1, ((Number) posts.get("FieldCalls")).intValue());
+
+        // Property fetchers are trivial and not recorded
+        assertNull(findEntry("Field", "Post.id"));
+
+        Map<String, Object> commentPages = entry("DataLoader", "commentPages");
+        assertMetricDirective(commentPages, "DataLoader", List.of(
+                Map.of("Name", "BatchSize", "Unit", "Count"),
+                Map.of("Name", "DispatchCount", "Unit", "Count")));
+        assertEquals(List.of((double) CommentDao.MAX_UNION_PARTS, (double) (POSTS - CommentDao.MAX_UNION_PARTS)),
+                values(commentPages, "BatchSize"));
+        assertEquals(2, ((Number) commentPages.get("DispatchCount")).intValue());
+    }
+
+    @Test
+    void capsValuesButCountsAllSamples() {
+        RequestMetrics requestMetrics = new RequestMetrics();
+        for (int i = 0; i < RequestMetrics.MAX_VALUES + 5; i++) {
+            requestMetrics.recordFieldLatency("Query.posts", i);
+        }
+
+        requestMetrics.emit(jsonConverter);
+
+        Map<String, Object> posts = entry("Field", "Query.posts");
+        assertEquals(RequestMetrics.MAX_VALUES, values(posts, "FieldLatency").size());
+        assertEquals(RequestMetrics.MAX_VALUES + 5, ((Number) posts.get("FieldCalls")).intValue());
+    }
+
+    private ExecutionResult execute(String query, RequestMetrics requestMetrics) {
+        BatchLoader<String, List<Map<String, Object>>> commentPagesLoader = postIds -> {
+            sleep(LOADER_MILLIS);
+            return CompletableFuture.completedFuture(postIds.stream()
+                    .map(postId -> List.<Map<String, Object>>of(Map.of("id", postId + "-comment")))
+                    .collect(Collectors.toList()));
+        };
+        DataLoaderRegistry registry = new DataLoaderRegistry();
+        registry.register("commentPages", DataLoaderFactory.newDataLoader(
+                requestMetrics.recordBatches("commentPages", commentPagesLoader),
+                DataLoaderOptions.newOptions().setMaxBatchSize(CommentDao.MAX_UNION_PARTS)));
+
+        DataFetcher<?> postsFetcher = environment -> IntStream.range(0, POSTS)
+                .mapToObj(i -> Map.of("id", "post-" + i))
+                .collect(Collectors.toList());
+        DataFetcher<?> commentsFetcher = environment -> environment.getDataLoader("commentPages")
+                .load(((Map<?, ?>) environment.getSource()).get("id"));
+        RuntimeWiring wiring = RuntimeWiring.newRuntimeWiring()
+                .type(TypeRuntimeWiring.newTypeWiring("Query").dataFetcher("posts", postsFetcher))
+                .type(TypeRuntimeWiring.newTypeWiring("Post").dataFetcher("comments", commentsFetcher))
+                .build();
+        GraphQLSchema schema = new SchemaGenerator().makeExecutableSchema(new SchemaParser().parse(SDL), wiring);
+
+        GraphQL graphQL = GraphQL.newGraphQL(schema)
+                .instrumentation(new FieldMetricsInstrumentation())
+                .build();
+        return graphQL.execute(ExecutionInput.newExecutionInput()
+                .query(query)
+                .dataLoaderRegistry(registry)
+                .graphQLContext(Map.of(RequestMetrics.class, requestMetrics))
+                .build());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void assertMetricDirective(Map<String, Object> entry, String dimension, List<Map<String, String>> metrics) {
+        Map<String, Object> aws = (Map<String, Object>) entry.get("_aws");
+        assertNotNull(aws, "_aws");
+        assertTrue(aws.get("Timestamp") instanceof Number);
+        List<Map<String, Object>> directives = (List<Map<String, Object>>) aws.get("CloudWatchMetrics");
+        assertEquals(1, directives.size());
+        Map<String, Object> directive = directives.get(0);
+        assertEquals("GraphqlLambda", directive.get("Namespace"));
+        assertEquals(List.of(List.of(dimension)), directive.get("Dimensions"));
+        assertEquals(metrics, directive.get("Metrics"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Double> values(Map<String, Object> entry, String metric) {
+        return (List<Double>) entry.get(metric);
+    }
+
+    private Map<String, Object> entry(String dimension, String value) {
+        Map<String, Object> entry = findEntry(dimension, value);
+        assertNotNull(entry, "no EMF line for " + dimension + "=" + value + " in " + appender.lines);
+        return entry;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> findEntry(String dimension, String value) {
+        for (String line : appender.lines) {
+            Map<String, Object> entry = jsonConverter.fromJson(line, Map.class);
+            if (value.equals(entry.get(dimension))) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class CapturingAppender extends AbstractAppender {
+        private final List<String> lines = new ArrayList<>();
+
+        CapturingAppender() {
+            super("CapturingEMF", null, null, true, Property.EMPTY_ARRAY);
+        }
+
+        @Override
+        public synchronized void append(LogEvent event) {
+            lines.add(event.getMessage().getFormattedMessage());
+        }
+    }
+
+}
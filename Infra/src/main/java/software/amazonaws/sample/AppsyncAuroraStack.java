@@ -29,9 +29,6 @@ import software.amazon.awscdk.services.secretsmanager.SecretProps;
 import software.amazon.awscdk.services.secretsmanager.SecretStringGenerator;
 import software.constructs.Construct;
 
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.util.Map;
 import java.util.Properties;
 
@@ -292,9 +289,9 @@ public class AppsyncAuroraStack extends Stack {
                 .environment(Map.of("RDS_SECRET", rdsSecret.getSecretArn(),
                         "CLUSTER_ARN", cluster.getClusterArn(),
                         "DATABASE_NAME", DB_NAME))
-                .code(Code.fromAsset("../DBInitLambda/target/db-init-lambda-0.0.1-SNAPSHOT.jar"))
+                .code(Code.fromAsset(CommonStackUtil.DB_INIT_LAMBDA_JAR))
                 .handler("software.amazonaws.example.handler.DBInitLambdaHandler::handleRequest")
-                .timeout(Duration.seconds(70))
+                .timeout(Duration.minutes(5))
                 .build());
 
         cluster.grantDataApiAccess(dbInitFunction);
@@ -303,19 +300,10 @@ public class AppsyncAuroraStack extends Stack {
                 .onEventHandler(dbInitFunction)
                 .build());
 
-        String scriptFile = "scripts/dbinit.sql";
-        String sqlScript = "";
-        try {
-            sqlScript = new String(Files.readAllBytes(Paths.get(scriptFile)));
-        } catch (
-                IOException e) {
-            System.out.println("DB Initialization Failed !!!");
-        }
-
         CustomResource cr = new CustomResource(this, "AppSyncAuroraStackInitDBCustomResource", CustomResourceProps.builder()
                 .serviceToken(dbInitProvider.getServiceToken())
                 .resourceType("Custom::InitDBProvider")
-                .properties(Map.of("SqlScript", sqlScript))
+                .properties(Map.of("SchemaVersion", CommonStackUtil.latestSchemaVersion()))
                 .build());
 
         cr.getNode().addDependency(cluster);
@@ -14,6 +14,7 @@ import software.amazon.awscdk.services.ec2.Vpc;
 import software.amazon.awscdk.services.lambda.Code;
 import software.amazon.awscdk.services.lambda.Function;
 import software.amazon.awscdk.services.lambda.FunctionProps;
+import software.amazon.awscdk.services.lambda.IFunction;
 import software.amazon.awscdk.services.lambda.Runtime;
 import software.constructs.Construct;
 
@@ -46,19 +47,20 @@ public class AppsyncLambdaResolverStack extends Stack {
                 .build();
 
         commonStackUtil.setupDBandProxy();
+        commonStackUtil.setupSchemaMigrations();
 
-        Function getPostFunction = getFunction(props, commonStackUtil, "GetPostResolverFunction", "GetPostByIdLambdaHandler");
-        Function getPostByAuthorFunction = getFunction(props, commonStackUtil, "GetPostByAuthorResolverFunction", "GetPostByAuthorLambdaHandler");
-        Function getCommentsOnPostFunction = getFunction(props, commonStackUtil, "GetCommentsOnPostResolverFunction", "GetCommentsOnPostLambdaHandler");
-        Function getCommentsByAuthorFunction = getFunction(props, commonStackUtil, "GetCommentsByAuthorResolverFunction", "GetCommentsByAuthorLambdaHandler");
-        Function getNumberOfCommentsFunction = getFunction(props, commonStackUtil, "GetNumberOfCommentsFunction", "GetNumberOfCommentsLambdaHandler");
-        Function createCommentFunction = getFunction(props, commonStackUtil, "CreateCommentFunction", "CreateCommentLambdaHandler");
-        Function upVoteCommentFunction = getFunction(props, commonStackUtil, "UpVoteCommentFunction", "UpVoteCommentLambdaHandler");
-        Function downVoteCommentFunction = getFunction(props, commonStackUtil, "DownVoteCommentFunction", "DownVoteCommentLambdaHandler");
-        Function addPostFunction = getFunction(props, commonStackUtil, "AddPostFunction", "AddPostLambdaHandler");
-        Function incrementViewsFunction = getFunction(props, commonStackUtil, "IncrementViewsFunction", "IncrementViewsLambdaHandler");
+        IFunction getPostFunction = getFunction(props, commonStackUtil, "GetPostResolverFunction", "GetPostByIdLambdaHandler");
+        IFunction getPostByAuthorFunction = getFunction(props, commonStackUtil, "GetPostByAuthorResolverFunction", "GetPostByAuthorLambdaHandler");
+        IFunction getCommentsOnPostFunction = getFunction(props, commonStackUtil, "GetCommentsOnPostResolverFunction", "GetCommentsOnPostLambdaHandler");
+        IFunction getCommentsByAuthorFunction = getFunction(props, commonStackUtil, "GetCommentsByAuthorResolverFunction", "GetCommentsByAuthorLambdaHandler");
+        IFunction getNumberOfCommentsFunction = getFunction(props, commonStackUtil, "GetNumberOfCommentsFunction", "GetNumberOfCommentsLambdaHandler");
+        IFunction createCommentFunction = getFunction(props, commonStackUtil, "CreateCommentFunction", "CreateCommentLambdaHandler");
+        IFunction upVoteCommentFunction = getFunction(props, commonStackUtil, "UpVoteCommentFunction", "UpVoteCommentLambdaHandler");
+        IFunction downVoteCommentFunction = getFunction(props, commonStackUtil, "DownVoteCommentFunction", "DownVoteCommentLambdaHandler");
+        IFunction addPostFunction = getFunction(props, commonStackUtil, "AddPostFunction", "AddPostLambdaHandler");
+        IFunction incrementViewsFunction = getFunction(props, commonStackUtil, "IncrementViewsFunction", "IncrementViewsLambdaHandler");
 
-        Function batchResolver = getFunction(props, commonStackUtil, "AppSyncBatchResolverFunction", "BatchCommentsHandler");
+        IFunction batchResolver = getFunction(props, commonStackUtil, "AppSyncBatchResolverFunction", "BatchCommentsHandler");
 
         GraphqlApi api = new GraphqlApi(this, "AppSyncLambdaResolver", GraphqlApiProps.builder()
                 .name("AppsyncLambdaResolverAPI")
@@ -149,8 +151,8 @@ public class AppsyncLambdaResolverStack extends Stack {
     }
 
     @NotNull
-    private Function getFunction(AppsyncLambdaResolverStackProps props, CommonStackUtil commonStackUtil, String logicalName, String handlerClass) {
-        return new Function(this, logicalName, FunctionProps.builder()
+    private IFunction getFunction(AppsyncLambdaResolverStackProps props, CommonStackUtil commonStackUtil, String logicalName, String handlerClass) {
+        Function function = new Function(this, logicalName, FunctionProps.builder()
                 .role(commonStackUtil.getLambdaRole())
                 .securityGroups(Arrays.asList(commonStackUtil.getLambdaSG()))
                 .memorySize(1024)
@@ -169,6 +171,8 @@ public class AppsyncLambdaResolverStack extends Stack {
                 .handler("software.amazonaws.sample.resolver.handler." + handlerClass + "::handleRequest")
                 .timeout(Duration.seconds(20))
                 .build());
+        function.getNode().addDependency(commonStackUtil.getSchemaMigrations());
+        return CommonStackUtil.enableSnapStart(function);
     }
 
     @lombok.Builder
@@ -5,8 +5,20 @@ package software.amazonaws.sample;
 
 import lombok.Builder;
 import lombok.Getter;
+import software.amazon.awscdk.CustomResource;
+import software.amazon.awscdk.CustomResourceProps;
+import software.amazon.awscdk.Duration;
+import software.amazon.awscdk.customresources.Provider;
+import software.amazon.awscdk.customresources.ProviderProps;
 import software.amazon.awscdk.services.ec2.*;
 import software.amazon.awscdk.services.iam.*;
+import software.amazon.awscdk.services.lambda.Alias;
+import software.amazon.awscdk.services.lambda.AliasProps;
+import software.amazon.awscdk.services.lambda.CfnFunction;
+import software.amazon.awscdk.services.lambda.Code;
+import software.amazon.awscdk.services.lambda.Function;
+import software.amazon.awscdk.services.lambda.FunctionProps;
+import software.amazon.awscdk.services.lambda.Runtime;
 import software.amazon.awscdk.services.rds.InstanceProps;
 import software.amazon.awscdk.services.rds.*;
 import software.amazon.awscdk.services.secretsmanager.Secret;
@@ -14,11 +26,19 @@ import software.amazon.awscdk.services.secretsmanager.SecretProps;
 import software.amazon.awscdk.services.secretsmanager.SecretStringGenerator;
 import software.constructs.Construct;
 
+import java.io.File;
 import java.util.Arrays;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 @Builder
 public class CommonStackUtil {
 
+    static final String DB_INIT_LAMBDA_JAR = "../DBInitLambda/target/db-init-lambda-0.0.1-SNAPSHOT.jar";
+    private static final String MIGRATIONS_DIR = "../DBInitLambda/src/main/resources/db/migration";
+    private static final Pattern MIGRATION_FILE_NAME = Pattern.compile("V(\\d+)__\\w+\\.sql");
+
     private Construct scope;
     private Vpc vpc;
     private String logicalNamePrefix;
@@ -38,6 +58,13 @@ public class CommonStackUtil {
     @Getter
     private SecurityGroup lambdaSG;
 
+    @Getter
+    private CustomResource schemaMigrations;
+
+    private Secret rdsSecret;
+
+    private DatabaseCluster rdsCluster;
+
     private Secret getRDSSecret() {
         Secret rdsSecret = new Secret(this.scope, this.logicalNamePrefix + "RDSPassword", SecretProps.builder()
                 .secretName(physicalNamePrefix + "-rds-cred")
@@ -132,10 +159,42 @@ public class CommonStackUtil {
         return lambdaRole;
     }
 
+    /**
+     * Enables Lambda SnapStart on the function and returns an alias on its current version.
+     * SnapStart only applies to published versions, so API integrations must invoke the alias.
+     */
+    public static Alias enableSnapStart(Function function) {
+        CfnFunction cfnFunction = (CfnFunction) function.getNode().getDefaultChild();
+        cfnFunction.addPropertyOverride("SnapStart", Map.of("ApplyOn", "PublishedVersions"));
+        return new Alias(function, "LiveAlias", AliasProps.builder()
+                .aliasName("live")
+                .version(function.getCurrentVersion())
+                .build());
+    }
+
+    /**
+     * Highest version of the migration scripts in DBInitLambda. Passed to the migration custom resources so that
+     * CloudFormation updates them, and so runs the migrations, when a new script is added.
+     */
+    public static String latestSchemaVersion() {
+        File[] scripts = new File(MIGRATIONS_DIR).listFiles();
+        if (scripts == null) {
+            throw new IllegalStateException("No migrations found in " + MIGRATIONS_DIR);
+        }
+        int version = 0;
+        for (File script : scripts) {
+            Matcher matcher = MIGRATION_FILE_NAME.matcher(script.getName());
+            if (matcher.matches()) {
+                version = Math.max(version, Integer.parseInt(matcher.group(1)));
+            }
+        }
+        return String.valueOf(version);
+    }
+
     public void setupDBandProxy() {
-        Secret rdsSecret = getRDSSecret();
+        this.rdsSecret = getRDSSecret();
         SecurityGroup rdsSecurityGroup = getRDSSecurityGroup();
-        DatabaseCluster rdsCluster = getRDSCluster(rdsSecret, rdsSecurityGroup);
+        this.rdsCluster = getRDSCluster(rdsSecret, rdsSecurityGroup);
         Role proxyRole = getRDSProxyRole();
         this.databaseProxy = getRDSProxy(rdsCluster, rdsSecurityGroup, rdsSecret, proxyRole);
         this.lambdaSG = getLambdaSecurityGroup();
@@ -146,5 +205,49 @@ public class CommonStackUtil {
         this.lambdaRole = getLambdaRole(account, region, dbUserName);
     }
 
+    /**
+     * Runs the DBInitLambda migrations against the cluster on every deployment that adds a migration. Functions
+     * that use the database should depend on {@link #getSchemaMigrations()}, their DBInitializer checks the version.
+     */
+    public void setupSchemaMigrations() {
+        Role migrationRole = new Role(this.scope, this.logicalNamePrefix + "DBInitLambdaRole", RoleProps.builder()
+                .assumedBy(new ServicePrincipal("lambda.amazonaws.com"))
+                .build());
+        migrationRole.addManagedPolicy(ManagedPolicy.fromAwsManagedPolicyName("service-role/AWSLambdaBasicExecutionRole"));
+        migrationRole.addManagedPolicy(ManagedPolicy.fromAwsManagedPolicyName("service-role/AWSLambdaVPCAccessExecutionRole"));
+        rdsSecret.grantRead(migrationRole);
+
+        // The lambda security group has access to the cluster, the migrations connect to it directly with the
+        // secret because the proxy only accepts IAM authentication
+        Function migrationFunction = new Function(this.scope, this.logicalNamePrefix + "DBInitLambda", FunctionProps.builder()
+                .role(migrationRole)
+                .securityGroups(Arrays.asList(this.lambdaSG))
+                .memorySize(1024)
+                .vpc(this.vpc)
+                .vpcSubnets(SubnetSelection.builder()
+                        .subnetType(SubnetType.PRIVATE_WITH_NAT)
+                        .build())
+                .runtime(Runtime.JAVA_11)
+                .environment(Map.of("RDS_SECRET", rdsSecret.getSecretArn(),
+                        "END_POINT", rdsCluster.getClusterEndpoint().getHostname(),
+                        "DB_PORT", dbPort,
+                        "DATABASE_NAME", dbName))
+                .code(Code.fromAsset(DB_INIT_LAMBDA_JAR))
+                .handler("software.amazonaws.example.handler.DBInitLambdaHandler::handleRequest")
+                .timeout(Duration.minutes(5))
+                .build());
+
+        Provider migrationProvider = new Provider(this.scope, this.logicalNamePrefix + "DBInitProvider", ProviderProps.builder()
+                .onEventHandler(migrationFunction)
+                .build());
+
+        this.schemaMigrations = new CustomResource(this.scope, this.logicalNamePrefix + "SchemaMigrations", CustomResourceProps.builder()
+                .serviceToken(migrationProvider.getServiceToken())
+                .resourceType("Custom::SchemaMigrations")
+                .properties(Map.of("SchemaVersion", latestSchemaVersion()))
+                .build());
+        this.schemaMigrations.getNode().addDependency(rdsCluster);
+    }
+
 
 }
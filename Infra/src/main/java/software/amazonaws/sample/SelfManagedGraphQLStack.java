@@ -11,10 +11,12 @@ import software.amazon.awscdk.services.apigatewayv2.integrations.alpha.HttpLambd
 import software.amazon.awscdk.services.ec2.SubnetSelection;
 import software.amazon.awscdk.services.ec2.SubnetType;
 import software.amazon.awscdk.services.ec2.Vpc;
+import software.amazon.awscdk.services.lambda.Alias;
 import software.amazon.awscdk.services.lambda.Code;
 import software.amazon.awscdk.services.lambda.Function;
 import software.amazon.awscdk.services.lambda.FunctionProps;
 import software.amazon.awscdk.services.lambda.Runtime;
+import software.amazon.awscdk.services.lambda.RuntimeFamily;
 import software.constructs.Construct;
 
 import java.util.Arrays;
@@ -50,6 +52,7 @@ public class SelfManagedGraphQLStack extends Stack {
                 .build();
 
         commonStackUtil.setupDBandProxy();
+        commonStackUtil.setupSchemaMigrations();
 
         Function lamdaFunction = new Function(this, "SelfManagedGraphQLLambdaFunction", FunctionProps.builder()
                 .role(commonStackUtil.getLambdaRole())
@@ -57,7 +60,8 @@ public class SelfManagedGraphQLStack extends Stack {
                 .memorySize(1024)
                 .timeout(Duration.seconds(20))
                 .vpc(props.getVpc())
-                .runtime(Runtime.JAVA_11)
+                // Java 21 lets the handler run root query fields and batch loaders on virtual threads
+                .runtime(new Runtime("java21", RuntimeFamily.JAVA))
                 .vpcSubnets(SubnetSelection.builder()
                         .subnetType(SubnetType.PRIVATE_WITH_NAT)
                         .build())
@@ -65,12 +69,16 @@ public class SelfManagedGraphQLStack extends Stack {
                         "DATABASE_NAME", DB_NAME,
                         "DB_USER_NAME", DB_USER_NAME,
                         "DB_PORT", DB_PORT,
-                        "REGION", this.getRegion()))
+                        "REGION", this.getRegion(),
+                        "DATA_FETCHER_EXECUTOR", "virtual"))
                 .code(Code.fromAsset("../GraphqlLambda/target/graphql-lambda-0.0.1-SNAPSHOT.jar"))
                 .handler("software.amazonaws.sample.graphqllambda.GraphqlLambdaHandler::handleRequest")
                 .timeout(Duration.seconds(20))
                 .build());
+        // The function checks the schema version at startup, including the SnapStart snapshot of its version
+        lamdaFunction.getNode().addDependency(commonStackUtil.getSchemaMigrations());
 
+        Alias lambdaAlias = CommonStackUtil.enableSnapStart(lamdaFunction);
 
         HttpApi httpApi = new HttpApi(this, "SelfManagedGraphQLApi", HttpApiProps.builder()
                 .description("Http API for Self Managed Graph QL API")
@@ -84,7 +92,7 @@ public class SelfManagedGraphQLStack extends Stack {
         httpApi.addRoutes(AddRoutesOptions.builder()
                 .path("/graphql")
                 .methods(Arrays.asList(HttpMethod.POST))
-                .integration(HttpLambdaIntegration.Builder.create("SelfManagedGraphQLHttpApi", lamdaFunction).build())
+                .integration(HttpLambdaIntegration.Builder.create("SelfManagedGraphQLHttpApi", lambdaAlias).build())
                 .build());
 
         CfnOutput output = new CfnOutput(this, "SelfManagedGraphQLAPIURL", CfnOutputProps.builder()
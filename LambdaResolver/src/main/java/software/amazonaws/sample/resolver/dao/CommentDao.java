@@ -5,6 +5,7 @@ package software.amazonaws.sample.resolver.dao;
 
 import software.amazonaws.sample.resolver.entity.Comment;
 
+import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -12,14 +13,13 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
-import java.util.stream.Collectors;
 
 public class CommentDao {
 
-    private Connection connection;
+    private DataSource dataSource;
 
-    public CommentDao(Connection connection) {
-        this.connection = connection;
+    public CommentDao(DataSource dataSource) {
+        this.dataSource = dataSource;
     }
 
     public List<Comment> getCommentsByPost(String postId) throws SQLException {
@@ -30,14 +30,10 @@ public class CommentDao {
     }
 
     public List<Comment> getCommentsByPostIds(List<String> postIds) throws SQLException {
-        String postList = postIds.stream()
-                .map(id -> ("'" + id + "'"))
-                .collect(Collectors.joining(","));
-
         String query = "select id, author, postId, content, upvotes, downvotes from comments "
-                + "where postId in (" + postList + ")";
+                + "where postId in ";
 
-        return getCommentsByField(Optional.empty(),query);
+        return InListQuery.query(dataSource, query, "", postIds, this::toComment);
     }
 
     public Comment getCommentsById(String commentId) throws SQLException {
@@ -60,51 +56,76 @@ public class CommentDao {
 
     private List<Comment> getCommentsByField(Optional<String> param, String query) throws SQLException {
         List<Comment> commentList = new ArrayList<>();
-        PreparedStatement preparedStatement = connection.prepareStatement(query);
-        if(param.isPresent()) {
-            preparedStatement.setString(1, param.get());
-        }
-        ResultSet results = preparedStatement.executeQuery();
-
-        while (results.next()) {
-            Comment comment = Comment.builder()
-                    .postId(results.getString("postId"))
-                    .author(results.getString("author"))
-                    .content(results.getString("content"))
-                    .id(results.getString("id"))
-                    .upvotes(results.getInt("upvotes"))
-                    .downvotes(results.getInt("downvotes"))
-                    .build();
-            commentList.add(comment);
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(query)) {
+            if(param.isPresent()) {
+                preparedStatement.setString(1, param.get());
+            }
+            try (ResultSet results = preparedStatement.executeQuery()) {
+                while (results.next()) {
+                    commentList.add(toComment(results));
+                }
+            }
         }
 
         return commentList;
     }
 
+    private Comment toComment(ResultSet results) throws SQLException {
+        return Comment.builder()
+                .postId(results.getString("postId"))
+                .author(results.getString("author"))
+                .content(results.getString("content"))
+                .id(results.getString("id"))
+                .upvotes(results.getInt("upvotes"))
+                .downvotes(results.getInt("downvotes"))
+                .build();
+    }
+
+    /**
+     * Inserts the comment and increments posts.commentCount in the same transaction.
+     */
     public void createComment(Comment comment) throws SQLException {
         String query = "insert into comments(id, author, postId, content, upvotes, downvotes) values (?, ? , ?, ?, ?, ?)";
-        PreparedStatement statement = connection.prepareStatement(query);
-        statement.setString(1, comment.getId());
-        statement.setString(2, comment.getAuthor());
-        statement.setString(3, comment.getPostId());
-        statement.setString(4, comment.getContent());
-        statement.setInt(5, comment.getUpvotes());
-        statement.setInt(6, comment.getDownvotes());
-        statement.executeUpdate();
+        String incrementCount = "update posts set commentCount = commentCount+1 where id = ?";
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = connection.prepareStatement(query);
+                 PreparedStatement countStatement = connection.prepareStatement(incrementCount)) {
+                statement.setString(1, comment.getId());
+                statement.setString(2, comment.getAuthor());
+                statement.setString(3, comment.getPostId());
+                statement.setString(4, comment.getContent());
+                statement.setInt(5, comment.getUpvotes());
+                statement.setInt(6, comment.getDownvotes());
+                statement.executeUpdate();
+                countStatement.setString(1, comment.getPostId());
+                countStatement.executeUpdate();
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    /**
+     * Adds an upvote and returns the updated comment in one round trip, see {@link ReturningUpdate}. Returns null
+     * when the comment does not exist.
+     */
+    public Comment upVoteComment(String commentId) throws SQLException {
+        return vote(true, commentId);
     }
 
-    public void upVoteComment(String commentId) throws SQLException {
-        String query = "update comments set upvotes = upvotes+1 where id = ?";
-        PreparedStatement statement = connection.prepareStatement(query);
-        statement.setString(1, commentId);
-        statement.executeUpdate();
+    public Comment downVoteComment(String commentId) throws SQLException {
+        return vote(false, commentId);
     }
 
-    public void downVoteComment(String commentId) throws SQLException {
-        String query = "update comments set downvotes = downvotes+1 where id = ?";
-        PreparedStatement statement = connection.prepareStatement(query);
-        statement.setString(1, commentId);
-        statement.executeUpdate();
+    private Comment vote(boolean upvote, String commentId) throws SQLException {
+        return ReturningUpdate.callAndMap(dataSource, "call vote_comment(?, ?, null)", List.of(commentId, upvote),
+                this::toComment);
     }
 
 }
@@ -7,6 +7,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import software.amazonaws.sample.resolver.entity.Post;
 
+import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -17,15 +18,15 @@ import java.util.List;
 public class PostDao {
 
     private static final Logger logger = LogManager.getLogger(PostDao.class);
-    private Connection connection;
+    private DataSource dataSource;
 
-    public PostDao(Connection connection) {
-        this.connection = connection;
+    public PostDao(DataSource dataSource) {
+        this.dataSource = dataSource;
     }
 
     public Post getPostById(String postId) throws SQLException {
 
-        String query = "select id, author, content, views from posts "
+        String query = "select id, author, content, views, commentCount from posts "
                 + "where id = ?";
 
         List<Post> posts = getPostByField(postId, query);
@@ -37,7 +38,7 @@ public class PostDao {
 
     public List<Post> getPostByAuthor(String author) throws SQLException {
 
-        String query = "select id, author, content, views from posts "
+        String query = "select id, author, content, views, commentCount from posts "
                 + "where author = ?";
 
         return getPostByField(author, query);
@@ -45,39 +46,62 @@ public class PostDao {
 
     private List<Post> getPostByField(String param, String query) throws SQLException {
         List<Post> posts = new ArrayList<>();
-        PreparedStatement preparedStatement = connection.prepareStatement(query);
-        preparedStatement.setString(1, param);
-        logger.info("Prepared Statement::" + preparedStatement.toString());
-        ResultSet results = preparedStatement.executeQuery();
-
-        while (results.next()) {
-            posts.add(Post.builder()
-                    .id(results.getString("id"))
-                    .author(results.getString("author"))
-                    .content(results.getString("content"))
-                    .views(results.getInt("views"))
-                    .build());
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(query)) {
+            preparedStatement.setString(1, param);
+            logger.debug("Prepared Statement::{}", preparedStatement);
+            try (ResultSet results = preparedStatement.executeQuery()) {
+                while (results.next()) {
+                    posts.add(toPost(results));
+                }
+            }
         }
         return posts;
     }
 
+    private Post toPost(ResultSet results) throws SQLException {
+        return Post.builder()
+                .id(results.getString("id"))
+                .author(results.getString("author"))
+                .content(results.getString("content"))
+                .views(results.getInt("views"))
+                .commentCount(results.getInt("commentCount"))
+                .build();
+    }
+
     public void createPost(Post post) throws SQLException {
-        String query = "insert into posts(id, author, content, views) values (?, ? , ?, ?)";
-        PreparedStatement statement = connection.prepareStatement(query);
-        statement.setString(1, post.getId());
-        statement.setString(2, post.getAuthor());
-        statement.setString(3, post.getContent());
-        statement.setInt(4, post.getViews());
-        statement.executeUpdate();
+        String query = "insert into posts(id, author, content, views, commentCount) values (?, ? , ?, ?, 0)";
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(query)) {
+            statement.setString(1, post.getId());
+            statement.setString(2, post.getAuthor());
+            statement.setString(3, post.getContent());
+            statement.setInt(4, post.getViews());
+            statement.executeUpdate();
+        }
 
     }
 
-    public void incrementViewCount(String postId) throws SQLException {
-        String query = "update posts set views = views+1 where id = ?";
-        PreparedStatement statement = connection.prepareStatement(query);
-        statement.setString(1, postId);
-        statement.executeUpdate();
+    /**
+     * Returns the comment count of the post, or 0 when the post does not exist.
+     */
+    public int getCommentCount(String postId) throws SQLException {
+        String query = "select commentCount from posts where id = ?";
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(query)) {
+            statement.setString(1, postId);
+            try (ResultSet results = statement.executeQuery()) {
+                return results.next() ? results.getInt("commentCount") : 0;
+            }
+        }
     }
 
+    /**
+     * Adds a view and returns the updated post in one round trip, see {@link ReturningUpdate}. Returns null when the
+     * post does not exist.
+     */
+    public Post incrementViewCount(String postId) throws SQLException {
+        return ReturningUpdate.callAndMap(dataSource, "call view_post(?, null)", List.of(postId), this::toPost);
+    }
 
 }
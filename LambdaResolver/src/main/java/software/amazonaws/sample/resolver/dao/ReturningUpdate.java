@@ -0,0 +1,47 @@
+//  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//  SPDX-License-Identifier: MIT-0
+
+package software.amazonaws.sample.resolver.dao;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Runs a single row update and returns the updated row in one round trip. A stored procedure runs the update and the
+ * select of the row on the server. A CALL is a single statement, so connections keep allowMultiQueries off and a SQL
+ * concatenation bug cannot stack queries.
+ */
+public final class ReturningUpdate {
+
+    private ReturningUpdate() {
+    }
+
+    /**
+     * Calls a procedure of the V6 migration that updates one row and returns it as its result set, so the update
+     * and the row take one round trip.
+     *
+     * @param call the call statement, e.g. "call vote_comment(?, ?, null)"
+     * @return the returned row, or null when the row does not exist
+     */
+    static <T> T callAndMap(DataSource dataSource, String call, List<Object> params,
+                            InListQuery.RowMapper<T> rowMapper) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(call)) {
+            setParams(statement, params);
+            try (ResultSet results = statement.executeQuery()) {
+                return results.next() ? rowMapper.map(results) : null;
+            }
+        }
+    }
+
+    private static void setParams(PreparedStatement statement, List<Object> params) throws SQLException {
+        for (int i = 0; i < params.size(); i++) {
+            statement.setObject(i + 1, params.get(i));
+        }
+    }
+
+}
@@ -7,9 +7,12 @@ import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.crac.Core;
+import org.crac.Resource;
 import software.amazonaws.sample.resolver.service.BatchCommentsService;
 import software.amazonaws.sample.resolver.util.DBInitializer;
 import software.amazonaws.sample.resolver.util.JsonConverter;
+import software.amazonaws.sample.resolver.util.PayloadLogger;
 
 import java.sql.SQLException;
 import java.util.List;
@@ -19,7 +22,7 @@ import java.util.stream.Collectors;
 /**
  * Handler for requests to Lambda function.
  */
-public class BatchCommentsHandler implements RequestHandler<List<Map<String, Object>>, List<String>> {
+public class BatchCommentsHandler implements RequestHandler<List<Map<String, Object>>, List<String>>, Resource {
 
     private static final Logger logger = LogManager.getLogger(BatchCommentsHandler.class);
     private final JsonConverter jsonConverter;
@@ -29,12 +32,22 @@ public class BatchCommentsHandler implements RequestHandler<List<Map<String, Obj
     public BatchCommentsHandler() {
         this.jsonConverter = new JsonConverter();
         this.dbInitializer = new DBInitializer();
-        batchCommentsService = new BatchCommentsService(dbInitializer.getConnection(), jsonConverter);
+        batchCommentsService = new BatchCommentsService(dbInitializer.getConnectionPool(), jsonConverter);
+        Core.getGlobalContext().register(this);
+    }
+
+    @Override
+    public void beforeCheckpoint(org.crac.Context<? extends Resource> context) throws Exception {
+        batchCommentsService.prime();
+    }
+
+    @Override
+    public void afterRestore(org.crac.Context<? extends Resource> context) {
     }
 
     public List<String> handleRequest(final List<Map<String, Object>> inputs, final Context context) {
 
-        logger.info("Event :: " + jsonConverter.toJson(inputs));
+        PayloadLogger.log(logger, "Event ::", () -> jsonConverter.toJson(inputs));
         List<Map<String, String>> sources = inputs.stream()
                 .filter(input -> input.get("field").equals("commentsByPost"))
                 .map(input -> (Map<String, String>) input.get("source"))
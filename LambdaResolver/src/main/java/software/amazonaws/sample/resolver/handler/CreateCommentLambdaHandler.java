@@ -7,17 +7,20 @@ import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.crac.Core;
+import org.crac.Resource;
 import software.amazonaws.sample.resolver.entity.Comment;
 import software.amazonaws.sample.resolver.service.QueryService;
 import software.amazonaws.sample.resolver.util.DBInitializer;
 import software.amazonaws.sample.resolver.util.JsonConverter;
+import software.amazonaws.sample.resolver.util.PayloadLogger;
 
 import java.util.Map;
 
 /**
  * Handler for requests to Lambda function.
  */
-public class CreateCommentLambdaHandler implements RequestHandler<Map<String, Object>, Comment> {
+public class CreateCommentLambdaHandler implements RequestHandler<Map<String, Object>, Comment>, Resource {
 
     private static final Logger logger = LogManager.getLogger(CreateCommentLambdaHandler.class);
     private final QueryService queryService;
@@ -27,12 +30,22 @@ public class CreateCommentLambdaHandler implements RequestHandler<Map<String, Ob
     public CreateCommentLambdaHandler() {
         this.jsonConverter = new JsonConverter();
         this.dbInitializer = new DBInitializer();
-        this.queryService = new QueryService(dbInitializer.getConnection(), jsonConverter);
+        this.queryService = new QueryService(dbInitializer.getConnectionPool(), jsonConverter);
+        Core.getGlobalContext().register(this);
+    }
+
+    @Override
+    public void beforeCheckpoint(org.crac.Context<? extends Resource> context) throws Exception {
+        queryService.prime();
+    }
+
+    @Override
+    public void afterRestore(org.crac.Context<? extends Resource> context) {
     }
 
     public Comment handleRequest(final Map<String, Object> input, final Context context) {
 
-        logger.info("Event :: " + jsonConverter.toJson(input));
+        PayloadLogger.log(logger, "Event ::", () -> jsonConverter.toJson(input));
         Map<String, String> arguments = (Map<String, String>) input.get("arguments");
 
         try {
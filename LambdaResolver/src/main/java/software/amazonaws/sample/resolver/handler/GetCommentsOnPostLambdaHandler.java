@@ -7,10 +7,13 @@ import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.crac.Core;
+import org.crac.Resource;
 import software.amazonaws.sample.resolver.entity.Comment;
 import software.amazonaws.sample.resolver.service.QueryService;
 import software.amazonaws.sample.resolver.util.DBInitializer;
 import software.amazonaws.sample.resolver.util.JsonConverter;
+import software.amazonaws.sample.resolver.util.PayloadLogger;
 
 import java.util.List;
 import java.util.Map;
@@ -18,7 +21,7 @@ import java.util.Map;
 /**
  * Handler for requests to Lambda function.
  */
-public class GetCommentsOnPostLambdaHandler implements RequestHandler<Map<String, Object>, List<Comment>> {
+public class GetCommentsOnPostLambdaHandler implements RequestHandler<Map<String, Object>, List<Comment>>, Resource {
 
     private static final Logger logger = LogManager.getLogger(GetCommentsOnPostLambdaHandler.class);
     private final QueryService queryService;
@@ -28,12 +31,22 @@ public class GetCommentsOnPostLambdaHandler implements RequestHandler<Map<String
     public GetCommentsOnPostLambdaHandler() {
         this.jsonConverter = new JsonConverter();
         this.dbInitializer = new DBInitializer();
-        this.queryService = new QueryService(dbInitializer.getConnection(), jsonConverter);
+        this.queryService = new QueryService(dbInitializer.getConnectionPool(), jsonConverter);
+        Core.getGlobalContext().register(this);
+    }
+
+    @Override
+    public void beforeCheckpoint(org.crac.Context<? extends Resource> context) throws Exception {
+        queryService.prime();
+    }
+
+    @Override
+    public void afterRestore(org.crac.Context<? extends Resource> context) {
     }
 
     public List<Comment> handleRequest(final Map<String, Object> input, final Context context) {
 
-        logger.info("Event :: " + jsonConverter.toJson(input));
+        PayloadLogger.log(logger, "Event ::", () -> jsonConverter.toJson(input));
         Map<String, String> arguments = (Map<String, String>) input.get("arguments");
 
         try {
@@ -4,9 +4,10 @@
 package software.amazonaws.sample.resolver.service;
 
 import software.amazonaws.sample.resolver.dao.CommentDao;
+import software.amazonaws.sample.resolver.entity.Comment;
 import software.amazonaws.sample.resolver.util.JsonConverter;
 
-import java.sql.Connection;
+import javax.sql.DataSource;
 import java.sql.SQLException;
 import java.util.List;
 import java.util.Map;
@@ -16,22 +17,32 @@ public class BatchCommentsService {
     private JsonConverter jsonConverter;
     private CommentDao commentDao;
 
-    public BatchCommentsService(Connection connection, JsonConverter jsonConverter) {
+    public BatchCommentsService(DataSource dataSource, JsonConverter jsonConverter) {
         this.jsonConverter = jsonConverter;
-        this.commentDao = new CommentDao(connection);
+        this.commentDao = new CommentDao(dataSource);
     }
 
+    /**
+     * Loads the comments of all source posts with one bound-parameter IN query per chunk of post ids.
+     */
     public List<String> getComments(List<Map<String, String>> sources) throws SQLException {
-        return sources.stream()
-                .map(source -> {
-                    try {
-                        return commentDao.getCommentsByPost(source.get("id"));
-                    } catch (SQLException se) {
-                        throw new RuntimeException(se);
-                    }
-                })
+        List<String> postIds = sources.stream()
+                .map(source -> source.get("id"))
+                .collect(Collectors.toList());
+        Map<String, List<Comment>> commentsByPost = commentDao.getCommentsByPostIds(postIds).stream()
+                .collect(Collectors.groupingBy(Comment::getPostId));
+
+        return postIds.stream()
+                .map(postId -> commentsByPost.getOrDefault(postId, List.of()))
                 .map(comments -> jsonConverter.toJson(comments))
                 .collect(Collectors.toList());
     }
 
-}
\ No newline at end of file
+    /**
+     * Runs the batch path once with a synthetic post id, used to prime the handler before a SnapStart snapshot.
+     */
+    public void prime() throws SQLException {
+        getComments(List.of(Map.of("id", "snapstart-priming")));
+    }
+
+}
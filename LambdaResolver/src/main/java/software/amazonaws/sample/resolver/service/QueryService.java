@@ -9,20 +9,21 @@ import software.amazonaws.sample.resolver.entity.Comment;
 import software.amazonaws.sample.resolver.entity.Post;
 import software.amazonaws.sample.resolver.util.JsonConverter;
 
-import java.sql.Connection;
+import javax.sql.DataSource;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
 public class QueryService {
+    private static final String PRIMING_ID = "snapstart-priming";
     private JsonConverter jsonConverter;
     private PostDao postDao;
     private CommentDao commentDao;
 
-    public QueryService(Connection connection, JsonConverter jsonConverter) {
+    public QueryService(DataSource dataSource, JsonConverter jsonConverter) {
         this.jsonConverter = jsonConverter;
-        this.postDao = new PostDao(connection);
-        this.commentDao = new CommentDao(connection);
+        this.postDao = new PostDao(dataSource);
+        this.commentDao = new CommentDao(dataSource);
     }
 
     public List<Post> getPostByAuthor(Map<String, String> arguments) throws Exception {
@@ -52,7 +53,7 @@ public class QueryService {
 
     public int getNumberOfCommentsOnPost(Map<String, String> arguments) throws Exception {
         String postId = arguments.get("postId");
-        return commentDao.getCommentsByPost(postId).size();
+        return postDao.getCommentCount(postId);
     }
 
     public Post createPost(Map<String, String> arguments) throws Exception {
@@ -60,6 +61,7 @@ public class QueryService {
                 .author(arguments.get("author"))
                 .content(arguments.get("content"))
                 .views(0)
+                .commentCount(0)
                 .id(UUID.randomUUID().toString())
                 .build();
         postDao.createPost(post);
@@ -82,23 +84,35 @@ public class QueryService {
 
     public Comment upvoteComment(Map<String, String> arguments) throws Exception {
         String id = arguments.get("id");
-        commentDao.upVoteComment(id);
-        Comment comment = commentDao.getCommentsById(id);
-        return comment;
+        return commentDao.upVoteComment(id);
     }
 
     public Comment downVoteComment(Map<String, String> arguments) throws Exception {
         String id = arguments.get("id");
-        commentDao.downVoteComment(id);
-        Comment comment = commentDao.getCommentsById(id);
-        return comment;
+        return commentDao.downVoteComment(id);
     }
 
     public Post incrementViewCount(Map<String, String> arguments) throws Exception {
         String id = arguments.get("id");
-        commentDao.upVoteComment(id);
-        postDao.incrementViewCount(id);
-        Post post = postDao.getPostById(id);
-        return post;
+        return postDao.incrementViewCount(id);
+    }
+
+    /**
+     * Runs the read paths and JSON serialization once with a synthetic id, used to prime the handlers before a
+     * SnapStart snapshot. No rows are written.
+     */
+    public void prime() throws Exception {
+        Map<String, String> arguments = Map.of("id", PRIMING_ID, "postId", PRIMING_ID, "author", PRIMING_ID);
+        getPostById(arguments);
+        getPostByAuthor(arguments);
+        getCommentsOnPost(arguments);
+        getCommentsByAuthor(arguments);
+        getNumberOfCommentsOnPost(arguments);
+
+        Comment comment = Comment.builder().id(PRIMING_ID).postId(PRIMING_ID).author(PRIMING_ID).content(PRIMING_ID)
+                .upvotes(0).downvotes(0).build();
+        Post post = Post.builder().id(PRIMING_ID).author(PRIMING_ID).content(PRIMING_ID).views(0)
+                .comments(List.of(comment)).build();
+        jsonConverter.fromJson(jsonConverter.toJson(post), Post.class);
     }
-}
\ No newline at end of file
+}
@@ -5,38 +5,38 @@ package software.amazonaws.sample.resolver.util;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.crac.Context;
+import org.crac.Core;
+import org.crac.Resource;
 
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 
 /**
- * This class initializes the Database tables. This class will be called with every cold start.
- * This is done for POC purpose only for ease of managing table creation process.
- * In production workloads, it is recommended to integrate the creation of tables into your CI/CD processes.
+ * This class opens the connection pool and checks that the database schema is at the version the DAOs need. The
+ * tables and indexes are created by the versioned migrations of DBInitLambda, which run as a CloudFormation custom
+ * resource before the functions are deployed, so no DDL runs on cold start.
+ * <p>
+ * With Lambda SnapStart the pooled connections are closed before the snapshot is taken and reopened with a fresh
+ * IAM auth token after restore.
  */
 
-public class DBInitializer {
+public class DBInitializer implements Resource {
     private static final Logger logger = LogManager.getLogger(DBInitializer.class);
     private static final long RETRY_INTERVAL = 45000;
-    private static final String CREATE_COMMENTS_TBL = "CREATE TABLE IF NOT EXISTS comments (" +
-            "id        VARCHAR(64) NOT NULL," +
-            "author    VARCHAR(128) NOT NULL," +
-            "postId    VARCHAR(64) NOT NULL," +
-            "content   VARCHAR(255) NOT NULL," +
-            "upvotes   INT NOT NULL," +
-            "downvotes INT NOT NULL," +
-            "PRIMARY KEY(id)," +
-            "FOREIGN KEY(postId) REFERENCES posts(id))";
-
-    private static final String CREATE_POSTS_TBL = "CREATE TABLE IF NOT EXISTS posts (" +
-            "id        VARCHAR(64) NOT NULL," +
-            "author    VARCHAR(128) NOT NULL," +
-            "content   VARCHAR(255) NOT NULL," +
-            "views   INT NOT NULL," +
-            "PRIMARY KEY(id))";
-
-    private Connection connection;
+    // Highest schema_migrations version the DAOs rely on, the migrations are applied by DBInitLambda
+    static final int REQUIRED_SCHEMA_VERSION = 6;
+
+    private static final int DEFAULT_POOL_MIN_SIZE = 1;
+    private static final int DEFAULT_POOL_MAX_SIZE = 4;
+    private static final long DEFAULT_POOL_BORROW_TIMEOUT_MS = 5000;
+    private static final long DEFAULT_POOL_IDLE_TIMEOUT_MS = 300000;
+    private static final long DEFAULT_POOL_VALIDATION_INTERVAL_MS = 1000;
+    private static final int DEFAULT_STATEMENT_CACHE_SIZE = 32;
+
+    private ConnectionPool connectionPool;
 
     public DBInitializer() {
         try {
@@ -47,35 +47,77 @@ public class DBInitializer {
             String region = System.getenv("REGION");
             int port = Integer.parseInt(System.getenv("DB_PORT"));
 
+            RdsSslSocketFactory.requireTrustStore(endpoint);
             DBUtil dbUtil = new DBUtil();
-            this.connection = dbUtil.createConnectionViaIamAuth(dbUserName, endpoint, region, port);
-            connection.setCatalog(databaseName);
-
-            if (this.connection != null) {
-                createTables();
-            }
-
-            logger.info("Finished Creating tables");
-
-        } catch (SQLException e) {
+            this.connectionPool = ConnectionPool.builder()
+                    .connectionFactory(() -> {
+                        Connection connection = dbUtil.createConnectionViaIamAuth(dbUserName, endpoint, region, port);
+                        if (connection == null) {
+                            throw new SQLException("Cannot open DB connection to " + endpoint);
+                        }
+                        connection.setCatalog(databaseName);
+                        return connection;
+                    })
+                    .minSize(getIntEnv("DB_POOL_MIN_SIZE", DEFAULT_POOL_MIN_SIZE))
+                    .maxSize(getIntEnv("DB_POOL_MAX_SIZE", DEFAULT_POOL_MAX_SIZE))
+                    .borrowTimeoutMillis(getLongEnv("DB_POOL_BORROW_TIMEOUT_MS", DEFAULT_POOL_BORROW_TIMEOUT_MS))
+                    .idleTimeoutMillis(getLongEnv("DB_POOL_IDLE_TIMEOUT_MS", DEFAULT_POOL_IDLE_TIMEOUT_MS))
+                    .validationIntervalMillis(getLongEnv("DB_POOL_VALIDATION_INTERVAL_MS", DEFAULT_POOL_VALIDATION_INTERVAL_MS))
+                    .statementCacheSize(getIntEnv("DB_STATEMENT_CACHE_SIZE", DEFAULT_STATEMENT_CACHE_SIZE))
+                    .build();
+
+            checkSchemaVersion();
+
+            Core.getGlobalContext().register(this);
+
+        } catch (RuntimeException e) {
             logger.info("Error initializing the DB", e);
             throw new RuntimeException("Error initializing the DB", e);
         }
     }
 
-    public Connection getConnection() {
-        return this.connection;
+    public ConnectionPool getConnectionPool() {
+        return this.connectionPool;
     }
 
-    private void createTables() {
-        try {
-            Statement statement = this.connection.createStatement();
-            statement.executeUpdate(CREATE_POSTS_TBL);
-            statement.executeUpdate(CREATE_COMMENTS_TBL);
-            logger.info("After Create Comments Table");
+    @Override
+    public void beforeCheckpoint(Context<? extends Resource> context) {
+        connectionPool.close();
+        AuthTokenProvider.getInstance().invalidateAll();
+    }
+
+    @Override
+    public void afterRestore(Context<? extends Resource> context) {
+        connectionPool.fill();
+    }
+
+    /**
+     * Fails the initialization when the database has not been migrated to {@link #REQUIRED_SCHEMA_VERSION}.
+     */
+    private void checkSchemaVersion() {
+        int version;
+        try (Connection connection = connectionPool.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet results = statement.executeQuery("SELECT MAX(version) FROM schema_migrations")) {
+            version = results.next() ? results.getInt(1) : 0;
         } catch (SQLException e) {
-            logger.error("Cannot create DB tables ", e);
+            throw new IllegalStateException("Cannot read the database schema version, run the DBInitLambda migrations", e);
+        }
+        if (version < REQUIRED_SCHEMA_VERSION) {
+            throw new IllegalStateException("Database schema version " + version + " is older than the required version "
+                    + REQUIRED_SCHEMA_VERSION + ", run the DBInitLambda migrations");
         }
+        logger.info("Database schema version " + version);
+    }
+
+    private static int getIntEnv(String name, int defaultValue) {
+        String value = System.getenv(name);
+        return value == null || value.isEmpty() ? defaultValue : Integer.parseInt(value);
+    }
+
+    private static long getLongEnv(String name, long defaultValue) {
+        String value = System.getenv(name);
+        return value == null || value.isEmpty() ? defaultValue : Long.parseLong(value);
     }
 
 }
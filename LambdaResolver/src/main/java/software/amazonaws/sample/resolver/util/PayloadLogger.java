@@ -0,0 +1,38 @@
+//  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//  SPDX-License-Identifier: MIT-0
+
+package software.amazonaws.sample.resolver.util;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.util.Supplier;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Logs request payloads for a sample of the requests. LOG_PAYLOAD_SAMPLE_RATE is the share of requests, from 0 to 1,
+ * whose payload is logged at INFO, the payloads of the other requests are logged at DEBUG. The payload supplier is
+ * only called when the message is logged, so requests that are not logged do not serialize their payload.
+ */
+public class PayloadLogger {
+
+    private static final double DEFAULT_SAMPLE_RATE = 0.01;
+    private static final double SAMPLE_RATE = getDoubleEnv("LOG_PAYLOAD_SAMPLE_RATE", DEFAULT_SAMPLE_RATE);
+
+    private PayloadLogger() {
+    }
+
+    public static void log(Logger logger, String message, Supplier<?> payload) {
+        logger.log(sampled() ? Level.INFO : Level.DEBUG, message + " {}", payload);
+    }
+
+    private static boolean sampled() {
+        return SAMPLE_RATE > 0 && ThreadLocalRandom.current().nextDouble() < SAMPLE_RATE;
+    }
+
+    private static double getDoubleEnv(String name, double defaultValue) {
+        String value = System.getenv(name);
+        return value == null || value.isEmpty() ? defaultValue : Double.parseDouble(value);
+    }
+
+}
@@ -0,0 +1,148 @@
+//  Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+//  SPDX-License-Identifier: MIT-0
+
+package software.amazonaws.sample.resolver.util;
+
+import com.mysql.cj.log.Log;
+import com.mysql.cj.protocol.ServerSession;
+import com.mysql.cj.protocol.SocketConnection;
+import com.mysql.cj.protocol.StandardSocketFactory;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * MySQL Connector/J socket factory that performs the TLS handshake with an in-memory trust store. The trust store
+ * applies to JDBC connections only and no JVM wide javax.net.ssl system properties are touched.
+ * <p>
+ * RDS Proxy endpoints, which the stacks deploy, present an ACM certificate that chains to the Amazon Trust Services
+ * roots, so connections to a proxy are verified against the JVM default trust store, which holds those roots.
+ * Direct cluster endpoints present a certificate of the RDS CA and need the RDS global bundle
+ * (https://truststore.pki.rds.amazonaws.com/global/global-bundle.pem) saved as src/main/resources/rds-ca-bundle.pem.
+ * {@link #requireTrustStore(String)} fails the init when a cluster endpoint is configured without the bundle.
+ * <p>
+ * All connections share one {@link SSLContext}, so its client session cache lets reconnects to the same RDS Proxy
+ * endpoint resume the previous TLS session instead of running a full handshake.
+ */
+public class RdsSslSocketFactory extends StandardSocketFactory {
+
+    private static final Logger logger = LogManager.getLogger(RdsSslSocketFactory.class);
+    static final String RDS_CA_BUNDLE = "rds-ca-bundle.pem";
+    private static final String[] TLS_PROTOCOLS = {"TLSv1.3", "TLSv1.2"};
+    private static final int SESSION_CACHE_SIZE = 64;
+    private static final SSLContext PROXY_SSL_CONTEXT = createSslContext(null);
+    private static volatile SSLContext rdsSslContext;
+
+    @Override
+    public <T extends Closeable> T performTlsHandshake(SocketConnection socketConnection, ServerSession serverSession)
+            throws IOException {
+        return performTlsHandshake(socketConnection, serverSession, null);
+    }
+
+    @Override
+    public <T extends Closeable> T performTlsHandshake(SocketConnection socketConnection, ServerSession serverSession,
+                                                       Log log) throws IOException {
+        SSLContext sslContext = isProxyEndpoint(this.host) ? PROXY_SSL_CONTEXT : rdsSslContext();
+        SSLSocket socket = (SSLSocket) sslContext.getSocketFactory().createSocket(this.rawSocket, this.host, this.port, true);
+        socket.setEnabledProtocols(Arrays.stream(TLS_PROTOCOLS)
+                .filter(protocol -> Arrays.asList(socket.getSupportedProtocols()).contains(protocol))
+                .toArray(String[]::new));
+
+        SSLParameters sslParameters = socket.getSSLParameters();
+        sslParameters.setEndpointIdentificationAlgorithm("HTTPS");
+        socket.setSSLParameters(sslParameters);
+        socket.startHandshake();
+
+        this.sslSocket = socket;
+        return (T) socket;
+    }
+
+    /**
+     * Loads the RDS CA bundle unless the endpoint is an RDS Proxy, so a missing bundle fails the init instead of the
+     * first handshake.
+     */
+    public static void requireTrustStore(String endpoint) {
+        if (!isProxyEndpoint(endpoint)) {
+            rdsSslContext();
+        }
+    }
+
+    /**
+     * RDS Proxy endpoints are named &lt;proxy&gt;.proxy-&lt;id&gt;.&lt;region&gt;.rds.amazonaws.com.
+     */
+    static boolean isProxyEndpoint(String host) {
+        return host != null && host.toLowerCase(Locale.ROOT).contains(".proxy-");
+    }
+
+    private static SSLContext rdsSslContext() {
+        SSLContext sslContext = rdsSslContext;
+        if (sslContext == null) {
+            synchronized (RdsSslSocketFactory.class) {
+                sslContext = rdsSslContext;
+                if (sslContext == null) {
+                    sslContext = createSslContext(loadRdsTrustStore());
+                    rdsSslContext = sslContext;
+                }
+            }
+        }
+        return sslContext;
+    }
+
+    /**
+     * @param trustStore the trusted certificates, or null for the JVM default trust store
+     */
+    private static SSLContext createSslContext(KeyStore trustStore) {
+        try {
+            TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            trustManagerFactory.init(trustStore);
+
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(null, trustManagerFactory.getTrustManagers(), null);
+            sslContext.getClientSessionContext().setSessionCacheSize(SESSION_CACHE_SIZE);
+            return sslContext;
+        } catch (GeneralSecurityException e) {
+            logger.error("Error creating SSL context for RDS ", e);
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns a key store holding every certificate of the packaged RDS CA bundle. Without the bundle cluster
+     * endpoints are refused rather than silently trusting other CAs.
+     */
+    private static KeyStore loadRdsTrustStore() {
+        try (InputStream bundle = RdsSslSocketFactory.class.getClassLoader().getResourceAsStream(RDS_CA_BUNDLE)) {
+            if (bundle == null) {
+                throw new IllegalStateException(RDS_CA_BUNDLE + " not found on the classpath");
+            }
+            KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+            keyStore.load(null);
+            int index = 0;
+            for (Certificate certificate : CertificateFactory.getInstance("X.509").generateCertificates(bundle)) {
+                keyStore.setCertificateEntry("rds-ca-" + index++, certificate);
+            }
+            if (index == 0) {
+                throw new IllegalStateException(RDS_CA_BUNDLE + " holds no certificates");
+            }
+            logger.info("Loaded " + index + " RDS CA certificates");
+            return keyStore;
+        } catch (GeneralSecurityException | IOException e) {
+            logger.error("Error loading " + RDS_CA_BUNDLE, e);
+            throw new IllegalStateException(e);
+        }
+    }
+
+}